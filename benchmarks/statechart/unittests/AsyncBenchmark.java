@@ -0,0 +1,121 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import statechart.Action;
+import statechart.Metadata;
+import statechart.Parameter;
+import statechart.PseudoState;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.Transition;
+
+/**
+ * End-to-end latency of dispatchAsynchron, from the call until the action of
+ * the transition has been executed by the threadpool, and the throughput of
+ * asynchronous events spread over many Metadata objects.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBenchmark {
+  private static final int INSTANCES = 64;
+  private static final int EVENTS = 1024;
+
+  private Statechart chart = null;
+  private Metadata[] data = new Metadata[INSTANCES];
+  private TestEvent event = new TestEvent(1);
+  private AtomicLong handled = new AtomicLong();
+  private long sent = 0;
+
+  //============================================================================
+
+  @Setup
+  public void setup() throws StatechartException {
+    chart = new Statechart("async", 4, true);
+    statechart.State a = new statechart.State("a", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, a, event, new Action() {
+      public void execute(Metadata data, Parameter parameter) {
+        handled.incrementAndGet();
+      }
+    });
+    for (int i = 0; i < INSTANCES; i++) {
+      data[i] = new Metadata(true);
+      chart.start(data[i]);
+    }
+  }
+
+  //============================================================================
+
+  @TearDown
+  public void tearDown() {
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long roundTrip() {
+    chart.dispatchAsynchron(data[0], event);
+    return await(++sent);
+  }
+
+  //============================================================================
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @OperationsPerInvocation(EVENTS)
+  public long fanOut() {
+    for (int i = 0; i < EVENTS; i++) {
+      chart.dispatchAsynchron(data[i % INSTANCES], event);
+    }
+    sent += EVENTS;
+    return await(sent);
+  }
+
+  //============================================================================
+
+  private long await(long count) {
+    long value;
+    while ((value = handled.get()) < count) {
+      Thread.yield();
+    }
+    return value;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import statechart.Metadata;
+import statechart.Statechart;
+import statechart.StatechartException;
+
+/**
+ * Throughput and latency of the synchronous dispatch. Every chart is driven
+ * through a cycle of events which returns to the first configuration, so the
+ * benchmark measures a steady state.
+ * <ul>
+ * <li>h5: nested hierarchical states and a deep history
+ * <li>c10: concurrent regions and a shallow history
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+  @Param({ "h5", "c10" })
+  public String chartName;
+
+  private Statechart chart = null;
+  private Metadata data = null;
+  private TestParameter parameter = null;
+  private TestEvent[] cycle = null;
+  private int next = 0;
+
+  //============================================================================
+
+  @Setup
+  public void setup() throws StatechartException {
+    parameter = new TestParameter();
+    parameter.recording = false;
+    data = new Metadata(true);
+
+    if ("h5".equals(chartName)) {
+      chart = TestCharts.h5();
+      chart.start(data, parameter);
+      chart.dispatch(data, new TestEvent(2), parameter);
+      // toggle b and c, leave and reenter p through the deep history
+      cycle = new TestEvent[] { new TestEvent(4), new TestEvent(4), new TestEvent(1) };
+    } else {
+      chart = TestCharts.c10();
+      chart.start(data, parameter);
+      // enter the regions through the history, toggle a and b, leave to c
+      cycle = new TestEvent[] { new TestEvent(1), new TestEvent(1), new TestEvent(2) };
+    }
+  }
+
+  //============================================================================
+
+  @TearDown
+  public void tearDown() {
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public boolean dispatch() {
+    TestEvent event = cycle[next];
+    next = next + 1 < cycle.length ? next + 1 : 0;
+    return chart.dispatch(data, event, parameter);
+  }
+}
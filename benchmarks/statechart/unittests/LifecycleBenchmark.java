@@ -0,0 +1,118 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import statechart.BitsetMetadata;
+import statechart.Metadata;
+import statechart.Statechart;
+import statechart.StatechartException;
+
+/**
+ * Cost of creating Metadata objects and of starting a statechart. The charts
+ * run to completion on start, so start covers the whole path.
+ * <ul>
+ * <li>t2: a flat chart
+ * <li>t4: junctions with guards
+ * <li>c7: a fork into concurrent regions
+ * <li>c8: a join out of concurrent regions
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifecycleBenchmark {
+  @Param({ "t2", "t4", "c7", "c8" })
+  public String chartName;
+
+  private Statechart chart = null;
+  private Metadata data = null;
+  private TestParameter parameter = null;
+
+  //============================================================================
+
+  @Setup
+  public void setup() throws StatechartException {
+    if ("t2".equals(chartName)) {
+      chart = TestCharts.t2();
+    } else if ("t4".equals(chartName)) {
+      chart = TestCharts.t4();
+    } else if ("c7".equals(chartName)) {
+      chart = TestCharts.c7();
+    } else {
+      chart = TestCharts.c8();
+    }
+    parameter = new TestParameter();
+    parameter.recording = false;
+    parameter.guardvalue = 1;
+    data = new Metadata(true);
+  }
+
+  //============================================================================
+
+  @TearDown
+  public void tearDown() {
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public Metadata createMetadata() {
+    return new Metadata();
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public Metadata createBitsetMetadata() {
+    return new BitsetMetadata();
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public boolean start() {
+    return chart.start(new Metadata(), parameter);
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public boolean restart() {
+    data.reset();
+    return chart.start(data, parameter);
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import statechart.DelayQueueTimerService;
+import statechart.Metadata;
+import statechart.PseudoState;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.StatechartRuntime;
+import statechart.TimeoutEvent;
+import statechart.TimerService;
+import statechart.TimingWheelTimerService;
+import statechart.Transition;
+
+/**
+ * Cost of arming, cancelling and firing timeouts while many other timeouts
+ * are armed. A manual runtime is used, so the expiry and the dispatch of a
+ * fired timeout happen in the benchmark thread. The timeouts are expired with
+ * a clock which advances by one tick of the timing wheel per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeoutBenchmark {
+  @Param({ "delayqueue", "wheel" })
+  public String timerName;
+
+  @Param({ "1000", "100000" })
+  public int armed;
+
+  private StatechartRuntime runtime = null;
+  private Statechart chart = null;
+  private Metadata data = null;
+  private TestEvent arm = new TestEvent(1);
+  private TestEvent cancel = new TestEvent(2);
+  private TestEvent fire = new TestEvent(3);
+  private int operations = 0;
+  private long clock = 0;
+
+  //============================================================================
+
+  @Setup
+  public void setup() throws StatechartException {
+    TimerService timer = "wheel".equals(timerName)
+      ? new TimingWheelTimerService() : new DelayQueueTimerService();
+    runtime = new StatechartRuntime(timer);
+    chart = new Statechart("timeouts", runtime);
+
+    // b waits 30 days, c a millisecond
+    statechart.State a = new statechart.State("a", chart, null, null, null);
+    statechart.State b = new statechart.State("b", chart, null, null, null);
+    statechart.State c = new statechart.State("c", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, arm);
+    new Transition(b, a, cancel);
+    new Transition(b, a, new TimeoutEvent(30L * 24 * 3600 * 1000));
+    new Transition(a, c, fire);
+    new Transition(c, a, new TimeoutEvent(1));
+
+    for (int i = 0; i < armed; i++) {
+      Metadata other = new Metadata();
+      chart.start(other);
+      chart.dispatch(other, arm);
+    }
+    data = new Metadata(true);
+    chart.start(data);
+    clock = System.currentTimeMillis() + 1000;
+  }
+
+  //============================================================================
+
+  @TearDown
+  public void tearDown() {
+    runtime.shutdown();
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public boolean armAndCancel() {
+    chart.dispatch(data, arm);
+    boolean result = chart.dispatch(data, cancel);
+    // the expiry loop of a real runtime sweeps the cancelled entries
+    if ((++operations & 255) == 0) {
+      runtime.pollTimeouts(System.currentTimeMillis());
+    }
+    return result;
+  }
+
+  //============================================================================
+
+  @Benchmark
+  public int armAndFire() {
+    chart.dispatch(data, fire);
+    clock += 10;
+    runtime.pollTimeouts(clock);
+    return runtime.drain(1);
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.jfr;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import statechart.Event;
+import statechart.Metadata;
+import statechart.Statechart;
+import statechart.StatechartListenerAdapter;
+import statechart.Transition;
+
+/**
+ * Emits JDK Flight Recorder events for the dispatches, transitions, fired
+ * timeouts and lock waits of a statechart. The dispatch, transition and lock
+ * wait events are begun before the step and committed after it, so they have
+ * the timestamps of the step and their thresholds are set in the recording
+ * settings, the default is 1 ms. A timeout is recorded when its lag exceeds
+ * the timeout threshold of the listener.
+ * <p>
+ * Usage: chart.addListener(new JfrListener(chart));
+ */
+public class JfrListener extends StatechartListenerAdapter {
+  /**
+   * The events begun by a thread and not yet committed. A dispatch nested in
+   * an action pushes further ones.
+   */
+  private static final class Steps {
+    final ArrayDeque<LockWaitEvent> locks = new ArrayDeque<LockWaitEvent>();
+    final ArrayDeque<DispatchEvent> dispatches = new ArrayDeque<DispatchEvent>();
+    final ArrayDeque<TransitionEvent> transitions = new ArrayDeque<TransitionEvent>();
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  // pushed instead of an event while the event type is disabled
+  private static final LockWaitEvent NO_LOCK = new LockWaitEvent();
+  private static final DispatchEvent NO_DISPATCH = new DispatchEvent();
+  private static final TransitionEvent NO_TRANSITION = new TransitionEvent();
+
+  private final String name;
+  private final ThreadLocal<Steps> steps = new ThreadLocal<Steps>() {
+    protected Steps initialValue() {
+      return new Steps();
+    }
+  };
+
+  // the threshold of the timeout lag in milliseconds
+  private volatile long timeoutThreshold = 10;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a listener recording timeouts more than 10 ms late.
+   *
+   * @param chart The statechart the listener is added to.
+   */
+  public JfrListener(Statechart chart) {
+    this.name = chart.toString();
+  }
+
+  //============================================================================
+
+  /**
+   * Sets the time a timeout must be late to be recorded.
+   */
+  public void setTimeoutThreshold(long duration, TimeUnit unit) {
+    timeoutThreshold = unit.toMillis(duration);
+  }
+
+  //============================================================================
+
+  @Override
+  public void lockRequested(Metadata data) {
+    LockWaitEvent e = new LockWaitEvent();
+    if (e.isEnabled()) {
+      e.begin();
+    } else {
+      e = NO_LOCK;
+    }
+    steps.get().locks.push(e);
+  }
+
+  //============================================================================
+
+  @Override
+  public void lockAcquired(Metadata data, long waitNanos) {
+    LockWaitEvent e = steps.get().locks.poll();
+    if (e != null && e != NO_LOCK) {
+      e.end();
+      if (e.shouldCommit()) {
+        e.statechart = name;
+        e.commit();
+      }
+    }
+  }
+
+  //============================================================================
+
+  @Override
+  public void dispatchStarted(Metadata data, Event event) {
+    DispatchEvent e = new DispatchEvent();
+    if (e.isEnabled()) {
+      e.begin();
+    } else {
+      e = NO_DISPATCH;
+    }
+    steps.get().dispatches.push(e);
+  }
+
+  //============================================================================
+
+  @Override
+  public void eventDispatched(Metadata data, Event event, boolean handled, long waitNanos,
+      long nanos) {
+    // also called if the dispatch throws, so the deques stay balanced
+    DispatchEvent e = steps.get().dispatches.poll();
+    if (e != null && e != NO_DISPATCH) {
+      e.end();
+      if (e.shouldCommit()) {
+        e.statechart = name;
+        e.event = String.valueOf(event);
+        e.handled = handled;
+        e.commit();
+      }
+    }
+  }
+
+  //============================================================================
+
+  @Override
+  public void transitionFired(Metadata data, Transition transition, Event event) {
+    TransitionEvent e = new TransitionEvent();
+    if (e.isEnabled()) {
+      e.begin();
+    } else {
+      e = NO_TRANSITION;
+    }
+    steps.get().transitions.push(e);
+  }
+
+  //============================================================================
+
+  @Override
+  public void transitionExecuted(Metadata data, Transition transition, long nanos) {
+    TransitionEvent e = steps.get().transitions.poll();
+    if (e != null && e != NO_TRANSITION) {
+      e.end();
+      if (e.shouldCommit()) {
+        e.statechart = name;
+        e.source = transition.getStart().toString();
+        e.target = transition.getTarget().toString();
+        e.commit();
+      }
+    }
+  }
+
+  //============================================================================
+
+  @Override
+  public void timeoutFired(Metadata data, Event event, long scheduled, long fired) {
+    long lag = Math.max(0, fired - scheduled);
+    if (lag >= timeoutThreshold) {
+      TimeoutFiredEvent e = new TimeoutFiredEvent();
+      if (e.isEnabled()) {
+        e.statechart = name;
+        e.event = String.valueOf(event);
+        e.scheduled = scheduled;
+        e.fired = fired;
+        e.lag = lag;
+        e.commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+/**
+ * An expired timeout handed to the statechart.
+ */
+@Name("statechart.TimeoutFired")
+@Label("Statechart Timeout Fired")
+@Category("Statechart")
+@Description("A timeout dispatched later than the threshold of the JfrListener")
+@StackTrace(false)
+class TimeoutFiredEvent extends Event {
+  @Label("Statechart")
+  String statechart;
+
+  @Label("Event")
+  String event;
+
+  @Label("Scheduled")
+  @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+  long scheduled;
+
+  @Label("Fired")
+  @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+  long fired;
+
+  @Label("Lag")
+  @Timespan(Timespan.MILLISECONDS)
+  long lag;
+}
@@ -0,0 +1,210 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class of the timer services implementing the lazy cancellation of
+ * timeouts. Cancelling an entry only marks it, the subclasses remove it when
+ * it reaches the head of their queue or in a sweep over all entries. A sweep
+ * is necessary as soon as the fraction of cancelled entries exceeds the purge
+ * threshold.
+ */
+public abstract class AbstractTimerService implements TimerService {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  // sweeping a few entries is not worth it
+  private static final int MIN_SWEEP_SIZE = 64;
+
+  protected ExecutorService executor = null;
+  private AtomicInteger cancelled = new AtomicInteger();
+  private AtomicLong purgedAtHead = new AtomicLong();
+  private AtomicLong purgedBySweep = new AtomicLong();
+  private AtomicLong sweeps = new AtomicLong();
+  private volatile double purgeThreshold = 0.5;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  public boolean cancel(EventQueueEntry entry) {
+    if (entry.casTimerState(EventQueueEntry.ARMED, EventQueueEntry.CANCELLED)) {
+      cancelled.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  //============================================================================
+
+  public int purge() {
+    sweeps.incrementAndGet();
+    return sweep();
+  }
+
+  //============================================================================
+
+  public int size() {
+    return Math.max(0, getEntryCount() - cancelled.get());
+  }
+
+  //============================================================================
+
+  public int getCancelledCount() {
+    return Math.max(0, cancelled.get());
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of cancelled entries removed at the head of the queue.
+   */
+  public long getPurgedAtHeadCount() {
+    return purgedAtHead.get();
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of cancelled entries removed by sweeps.
+   */
+  public long getPurgedBySweepCount() {
+    return purgedBySweep.get();
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of sweeps done so far.
+   */
+  public long getSweepCount() {
+    return sweeps.get();
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the fraction of cancelled entries which triggers a sweep.
+   */
+  public double getPurgeThreshold() {
+    return purgeThreshold;
+  }
+
+  //============================================================================
+
+  /**
+   * Sets the fraction of cancelled entries which triggers a sweep. The
+   * default is 0.5.
+   */
+  public void setPurgeThreshold(double purgeThreshold) {
+    if (purgeThreshold <= 0 || purgeThreshold > 1) {
+      throw new IllegalArgumentException("The threshold must be in (0, 1]");
+    }
+    this.purgeThreshold = purgeThreshold;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of entries held including the cancelled ones.
+   */
+  protected abstract int getEntryCount();
+
+  //============================================================================
+
+  /**
+   * Removes all cancelled entries using claim and release.
+   *
+   * @return The number of removed entries.
+   */
+  protected abstract int sweep();
+
+  //============================================================================
+
+  /**
+   * Marks the entry as armed. Must be called before the entry is added.
+   */
+  protected final void arm(EventQueueEntry entry) {
+    entry.timerState = EventQueueEntry.ARMED;
+  }
+
+  //============================================================================
+
+  /**
+   * Handles an entry removed from the head of the queue. An armed entry is
+   * posted to the mailbox of its Metadata, a cancelled one is dropped.
+   *
+   * @return True if the entry was posted.
+   */
+  protected final boolean expire(EventQueueEntry entry) {
+    if (entry.casTimerState(EventQueueEntry.ARMED, EventQueueEntry.IDLE)) {
+      entry.post();
+      return true;
+    } else if (entry.casTimerState(EventQueueEntry.CANCELLED, EventQueueEntry.IDLE)) {
+      entry.queued = false;
+      cancelled.decrementAndGet();
+      purgedAtHead.incrementAndGet();
+    }
+    return false;
+  }
+
+  //============================================================================
+
+  /**
+   * Claims a cancelled entry for removal by a sweep. If true is returned the
+   * caller must remove the entry and release it afterwards.
+   */
+  protected final boolean claim(EventQueueEntry entry) {
+    return entry.casTimerState(EventQueueEntry.CANCELLED, EventQueueEntry.IDLE);
+  }
+
+  //============================================================================
+
+  /**
+   * Releases a claimed entry after it has been removed, so it can be reused.
+   */
+  protected final void release(EventQueueEntry entry) {
+    entry.queued = false;
+    cancelled.decrementAndGet();
+    purgedBySweep.incrementAndGet();
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the fraction of cancelled entries exceeds the threshold.
+   */
+  protected final boolean needsSweep() {
+    int count = cancelled.get();
+    return count >= MIN_SWEEP_SIZE && count > getEntryCount() * purgeThreshold;
+  }
+
+  //============================================================================
+
+  /**
+   * Forgets all cancelled entries. Used when the timer is shut down.
+   */
+  protected final void resetCancelled() {
+    cancelled.set(0);
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.Arrays;
+
+/**
+ * Runtime data which stores the active configuration as a bitset indexed by
+ * the ordinal of the states. A StateRuntimedata object is only kept for
+ * states which need it: composite states, history pseudostates and states
+ * with timeout transitions. For all other states getData returns NULL even if
+ * the state is active, use isActive instead.
+ *
+ * The bitset allows to compare the whole configuration with a mask created by
+ * the mask method, e.g. to find all instances in a given set of states.
+ */
+public class BitsetMetadata extends Metadata {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  /** One bit per state ordinal, set if the state is active */
+  private long[] active = new long[0];
+
+  /** The StateRuntimedata of the states which need it indexed by slot */
+  private StateRuntimedata[] records = new StateRuntimedata[0];
+
+  /** The slot of every state in the records array, see Statechart */
+  private int[] slots = new int[0];
+
+  /** The statechart the ordinals belong to */
+  private Statechart statechart = null;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a BitsetMetadata object.
+   */
+  public BitsetMetadata() {
+    this(false);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a BitsetMetadata object.
+   *
+   * @param recycle Keep the StateRuntimedata of deactivated states for reuse.
+   */
+  public BitsetMetadata(boolean recycle) {
+    super(recycle);
+  }
+
+  //============================================================================
+
+  /**
+   * Checks wether the given state is active or not.
+   */
+  public boolean isActive(State state) {
+    int ordinal = state.ordinal;
+    if (state.statechart != statechart || (ordinal >> 6) >= active.length) {
+      return false;
+    }
+    return (active[ordinal >> 6] & (1L << ordinal)) != 0;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if all states of the given mask are active.
+   */
+  public boolean isActive(long[] mask) {
+    for (int i = 0; i < mask.length; i++) {
+      long word = i < active.length ? active[i] : 0;
+      if ((word & mask[i]) != mask[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if at least one state of the given mask is active.
+   */
+  public boolean isAnyActive(long[] mask) {
+    int length = mask.length < active.length ? mask.length : active.length;
+    for (int i = 0; i < length; i++) {
+      if ((active[i] & mask[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets a copy of the active configuration.
+   */
+  public long[] getConfiguration() {
+    long[] configuration = new long[active.length];
+    System.arraycopy(active, 0, configuration, 0, active.length);
+    return configuration;
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a mask containing the given states. The mask can be used to check
+   * the configuration with isActive or isAnyActive.
+   */
+  public static long[] mask(State... states) {
+    int max = 0;
+    for (State s : states) {
+      if (s.ordinal > max) {
+        max = s.ordinal;
+      }
+    }
+    long[] mask = new long[(max >> 6) + 1];
+    for (State s : states) {
+      mask[s.ordinal >> 6] |= 1L << s.ordinal;
+    }
+    return mask;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the runtime specific data of the state.
+   *
+   * @return The data or NULL if the state is not active or does not need a
+   *         StateRuntimedata object
+   */
+  public StateRuntimedata getData(State state) {
+    if (state.statechart != statechart || state.ordinal >= slots.length - 1) {
+      return null;
+    }
+    int slot = slots[state.ordinal];
+    return slot >= 0 ? records[slot] : null;
+  }
+
+  //============================================================================
+
+  /**
+   * Activates a state for this Metadata.
+   */
+  void activate(State state) {
+    bind(state);
+    active[state.ordinal >> 6] |= 1L << state.ordinal;
+
+    if (slots[state.ordinal] >= 0) {
+      StateRuntimedata data = createRuntimedata(state);
+      data.active = true;
+      data.currentTime = System.currentTimeMillis();
+      data.currentState = null;
+    }
+
+    // update the context. if context is null we are at top level
+    if (state.context != null) {
+      getData(state.context).currentState = state;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Deactivates the state and frees the allocated resources.
+   */
+  void deactivate(State state) {
+    if (!isActive(state) && getData(state) == null) {
+      return;
+    }
+    active[state.ordinal >> 6] &= ~(1L << state.ordinal);
+
+    StateRuntimedata data = getData(state);
+    if (data != null) {
+      // If we store the history of a hierarchical state, keep it
+      if (state instanceof PseudoState
+          && (((PseudoState)state).type == PseudoState.pseudostate_deep_history
+          || ((PseudoState)state).type == PseudoState.pseudostate_history)) {
+        data.active = false;
+        return;
+      }
+
+      data.timeoutEvents.clear();
+      data.currentState = null;
+      if (isRecycling()) {
+        data.active = false;
+        data.stateset.clear();
+      } else {
+        records[slots[state.ordinal]] = null;
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the runtime data for a state and creates it if necessary. For states
+   * without a slot a new object is returned which is not stored.
+   */
+  StateRuntimedata createRuntimedata(State s) {
+    bind(s);
+    int slot = slots[s.ordinal];
+    if (slot < 0) {
+      return new StateRuntimedata();
+    }
+    StateRuntimedata data = records[slot];
+    if (data == null) {
+      data = new StateRuntimedata();
+      records[slot] = data;
+    }
+    return data;
+  }
+
+  //============================================================================
+
+  /**
+   * Resets the metadata object for reuse
+   */
+  public void reset() {
+    Arrays.fill(active, 0);
+    for (int i = 0; i < records.length; i++) {
+      if (records[i] != null) {
+        clear(records[i]);
+        if (!isRecycling()) {
+          records[i] = null;
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Makes sure the bitset and the records can hold the data of the given
+   * state. If the state belongs to another statechart, all data is dropped.
+   */
+  private void bind(State state) {
+    if (state.statechart != statechart) {
+      statechart = state.statechart;
+      slots = statechart.getRecordSlots();
+      active = new long[((slots.length - 1) >> 6) + 1];
+      records = new StateRuntimedata[slots[slots.length - 1]];
+    } else if (state.ordinal >= slots.length - 1 || slots != statechart.getRecordSlots()) {
+      // the statechart was changed after the first activation
+      StateRuntimedata[] old = records;
+      int[] oldSlots = slots;
+      slots = statechart.getRecordSlots();
+      records = new StateRuntimedata[slots[slots.length - 1]];
+      for (int i = 0; i < oldSlots.length - 1; i++) {
+        if (oldSlots[i] >= 0 && slots[i] >= 0) {
+          records[slots[i]] = old[oldSlots[i]];
+        }
+      }
+      long[] grown = new long[((slots.length - 1) >> 6) + 1];
+      System.arraycopy(active, 0, grown, 0, active.length);
+      active = grown;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dispatches one event to a list of Metadata objects. The list is split into
+ * partitions which are dispatched by the tasks of a fork/join pool. An
+ * exception thrown by the dispatch to one object is recorded in the result,
+ * the event is still dispatched to the others.
+ */
+class Broadcast extends RecursiveAction {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final long serialVersionUID = 1L;
+
+  private final Statechart statechart;
+  private final List<? extends Metadata> population;
+  private final Event event;
+  private final Parameter parameter;
+  private final int partitionSize;
+  private final int[] handled;
+  private final long[] latencies;
+
+  // the exceptions of every partition by Metadata object, NULL if none failed
+  private final Map<Metadata, RuntimeException>[] failures;
+
+  // the range of partitions handled by this task
+  private final int from;
+  private final int to;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  Broadcast(Statechart statechart, List<? extends Metadata> population, Event event,
+      Parameter parameter, int partitionSize) {
+    this.statechart = statechart;
+    this.population = population;
+    this.event = event;
+    this.parameter = parameter;
+    this.partitionSize = partitionSize;
+    int partitions = (population.size() + partitionSize - 1) / partitionSize;
+    handled = new int[partitions];
+    latencies = new long[partitions];
+    failures = newFailures(partitions);
+    from = 0;
+    to = partitions;
+  }
+
+  //============================================================================
+
+  private Broadcast(Broadcast parent, int from, int to) {
+    statechart = parent.statechart;
+    population = parent.population;
+    event = parent.event;
+    parameter = parent.parameter;
+    partitionSize = parent.partitionSize;
+    handled = parent.handled;
+    latencies = parent.latencies;
+    failures = parent.failures;
+    this.from = from;
+    this.to = to;
+  }
+
+  //============================================================================
+
+  /**
+   * Runs the broadcast with the given pool, or in the calling thread if the
+   * pool is NULL.
+   */
+  BroadcastResult execute(ForkJoinPool pool) {
+    long started = System.nanoTime();
+    if (pool != null) {
+      pool.invoke(this);
+    } else {
+      for (int i = from; i < to; i++) {
+        dispatch(i);
+      }
+    }
+    long elapsed = System.nanoTime() - started;
+
+    int count = 0;
+    IdentityHashMap<Metadata, RuntimeException> failed = new IdentityHashMap<Metadata, RuntimeException>();
+    for (int i = 0; i < handled.length; i++) {
+      count += handled[i];
+      if (failures[i] != null) {
+        failed.putAll(failures[i]);
+      }
+    }
+    return new BroadcastResult(count, population.size() - count - failed.size(), failed,
+                               latencies, elapsed);
+  }
+
+  //============================================================================
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Map<Metadata, RuntimeException>[] newFailures(int partitions) {
+    return new Map[partitions];
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event to all Metadata objects of the partition.
+   */
+  private void dispatch(int partition) {
+    long started = System.nanoTime();
+    int end = Math.min(population.size(), (partition + 1) * partitionSize);
+    int count = 0;
+    for (int i = partition * partitionSize; i < end; i++) {
+      Metadata data = population.get(i);
+      try {
+        if (statechart.dispatch(data, event, parameter)) {
+          count++;
+        }
+      } catch (RuntimeException e) {
+        if (failures[partition] == null) {
+          failures[partition] = new IdentityHashMap<Metadata, RuntimeException>();
+        }
+        failures[partition].put(data, e);
+      }
+    }
+    handled[partition] = count;
+    latencies[partition] = System.nanoTime() - started;
+  }
+
+  //============================================================================
+  // Inherited by RecursiveAction
+  //============================================================================
+  @Override
+  protected void compute() {
+    if (to - from <= 1) {
+      if (from < to) {
+        dispatch(from);
+      }
+    } else {
+      int middle = (from + to) >>> 1;
+      invokeAll(new Broadcast(this, from, middle), new Broadcast(this, middle, to));
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of broadcasting an event to many Metadata objects. The
+ * population is split into partitions of consecutive objects, which are
+ * dispatched in parallel.
+ */
+public class BroadcastResult {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private int handled = 0;
+  private int unhandled = 0;
+  private Map<Metadata, RuntimeException> failures = null;
+  private long[] latencies = null;
+  private long elapsed = 0;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  BroadcastResult(int handled, int unhandled, Map<Metadata, RuntimeException> failures,
+      long[] latencies, long elapsed) {
+    this.handled = handled;
+    this.unhandled = unhandled;
+    this.failures = Collections.unmodifiableMap(failures);
+    this.latencies = latencies;
+    this.elapsed = elapsed;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of Metadata objects which handled the event.
+   */
+  public int getHandledCount() {
+    return handled;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of Metadata objects which did not handle the event,
+   * without the failed ones.
+   */
+  public int getUnhandledCount() {
+    return unhandled;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of Metadata objects whose dispatch threw an exception.
+   */
+  public int getFailedCount() {
+    return failures.size();
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the exceptions thrown by the dispatches, by Metadata object. The
+   * map compares the objects by identity.
+   */
+  public Map<Metadata, RuntimeException> getFailures() {
+    return failures;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of partitions.
+   */
+  public int getPartitionCount() {
+    return latencies.length;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the time in nanoseconds needed to dispatch the event to all objects
+   * of the given partition.
+   */
+  public long getPartitionLatency(int partition) {
+    return latencies[partition];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the time in nanoseconds of the slowest partition.
+   */
+  public long getMaxPartitionLatency() {
+    long max = 0;
+    for (int i = 0; i < latencies.length; i++) {
+      max = Math.max(max, latencies[i]);
+    }
+    return max;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the time in nanoseconds the whole broadcast took.
+   */
+  public long getElapsedTime() {
+    return elapsed;
+  }
+
+  //============================================================================
+  // Inherited by Object
+  //============================================================================
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("BroadcastResult [handled=");
+    builder.append(handled);
+    builder.append(", unhandled=");
+    builder.append(unhandled);
+    builder.append(", failed=");
+    builder.append(failures.size());
+    builder.append(", partitions=");
+    builder.append(latencies.length);
+    builder.append(", maxPartitionLatency=");
+    builder.append(getMaxPartitionLatency());
+    builder.append(", elapsed=");
+    builder.append(elapsed);
+    builder.append("]");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * Forwards the notifications to several listeners. Immutable, a listener is
+ * added or removed by creating a new composite.
+ */
+class CompositeListener implements StatechartListener {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  final StatechartListener[] listeners;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  CompositeListener(StatechartListener[] listeners) {
+    this.listeners = listeners;
+  }
+
+  //============================================================================
+
+  /**
+   * Adds a listener to the given one, which may be NULL or a composite.
+   */
+  static StatechartListener add(StatechartListener current, StatechartListener listener) {
+    if (current == null) {
+      return listener;
+    }
+    StatechartListener[] old = current instanceof CompositeListener
+      ? ((CompositeListener)current).listeners : new StatechartListener[] { current };
+    StatechartListener[] list = new StatechartListener[old.length + 1];
+    System.arraycopy(old, 0, list, 0, old.length);
+    list[old.length] = listener;
+    return new CompositeListener(list);
+  }
+
+  //============================================================================
+
+  /**
+   * Removes a listener from the given one.
+   *
+   * @return The remaining listener, a composite or NULL.
+   */
+  static StatechartListener remove(StatechartListener current, StatechartListener listener) {
+    if (current == listener) {
+      return null;
+    }
+    if (!(current instanceof CompositeListener)) {
+      return current;
+    }
+    StatechartListener[] old = ((CompositeListener)current).listeners;
+    StatechartListener[] list = new StatechartListener[old.length];
+    int count = 0;
+    for (int i = 0; i < old.length; i++) {
+      if (old[i] != listener) {
+        list[count++] = old[i];
+      }
+    }
+    if (count == old.length) {
+      return current;
+    }
+    if (count == 1) {
+      return list[0];
+    }
+    StatechartListener[] shrunk = new StatechartListener[count];
+    System.arraycopy(list, 0, shrunk, 0, count);
+    return new CompositeListener(shrunk);
+  }
+
+  //============================================================================
+
+  public void stateEntered(Metadata data, State state) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].stateEntered(data, state);
+    }
+  }
+
+  //============================================================================
+
+  public void stateExited(Metadata data, State state) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].stateExited(data, state);
+    }
+  }
+
+  //============================================================================
+
+  public void lockRequested(Metadata data) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].lockRequested(data);
+    }
+  }
+
+  //============================================================================
+
+  public void lockAcquired(Metadata data, long waitNanos) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].lockAcquired(data, waitNanos);
+    }
+  }
+
+  //============================================================================
+
+  public void dispatchStarted(Metadata data, Event event) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].dispatchStarted(data, event);
+    }
+  }
+
+  //============================================================================
+
+  public void transitionFired(Metadata data, Transition transition, Event event) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].transitionFired(data, transition, event);
+    }
+  }
+
+  //============================================================================
+
+  public void transitionExecuted(Metadata data, Transition transition, long nanos) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].transitionExecuted(data, transition, nanos);
+    }
+  }
+
+  //============================================================================
+
+  public void eventUnhandled(Metadata data, Event event) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].eventUnhandled(data, event);
+    }
+  }
+
+  //============================================================================
+
+  public void guardRejected(Metadata data, Transition transition) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].guardRejected(data, transition);
+    }
+  }
+
+  //============================================================================
+
+  public void actionExecuted(Metadata data, State state, int kind, Action action, long nanos) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].actionExecuted(data, state, kind, action, nanos);
+    }
+  }
+
+  //============================================================================
+
+  public void eventDispatched(Metadata data, Event event, boolean handled, long waitNanos,
+      long nanos) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].eventDispatched(data, event, handled, waitNanos, nanos);
+    }
+  }
+
+  //============================================================================
+
+  public void timeoutFired(Metadata data, Event event, long scheduled, long fired) {
+    for (int i = 0; i < listeners.length; i++) {
+      listeners[i].timeoutFired(data, event, scheduled, fired);
+    }
+  }
+}
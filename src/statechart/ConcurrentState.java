@@ -19,8 +19,6 @@
  */
 package statechart;
 
-import java.util.Vector;
-
 /**
  * The implementation of the AND composite state.
  */
@@ -31,7 +29,7 @@ public class ConcurrentState extends Context {
   /**
    * The regions of the AND-composition.
    */
-  private Vector<HierarchicalState> regions = new Vector<HierarchicalState>();
+  private HierarchicalState[] regions = new HierarchicalState[0];
   
   //============================================================================
   // METHODS
@@ -52,7 +50,19 @@ public class ConcurrentState extends Context {
    * @throws StatechartException 
    */
   void addRegion(HierarchicalState region) {
-    regions.add(region);
+    HierarchicalState[] list = new HierarchicalState[regions.length + 1];
+    System.arraycopy(regions, 0, list, 0, regions.length);
+    list[regions.length] = region;
+    regions = list;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of regions.
+   */
+  int getRegionCount() {
+    return regions.length;
   }
 
   //============================================================================
@@ -63,10 +73,10 @@ public class ConcurrentState extends Context {
   boolean activate(Metadata data, Parameter parameter) {
     if (super.activate(data, parameter)) {
       StateRuntimedata statedata = data.getData(this);
-      for (int i = 0; i < regions.size(); i++) {
+      for (int i = 0; i < regions.length; i++) {
         // check if the region is activated implicit via a incoming transition
-        if (!statedata.stateset.contains(regions.get(i))) {
-          HierarchicalState h = regions.get(i);
+        if (!statedata.stateset.contains(regions[i])) {
+          HierarchicalState h = regions[i];
           if (h.activate(data, parameter)) {
             h.dispatch(data, null, parameter);
           }
@@ -84,8 +94,8 @@ public class ConcurrentState extends Context {
    */
   void deactivate(Metadata data, Parameter parameter) {
     data.getData(this).stateset.clear();
-    for (int i = 0; i < regions.size(); i++) {
-      HierarchicalState h = regions.get(i);
+    for (int i = 0; i < regions.length; i++) {
+      HierarchicalState h = regions[i];
       h.deactivate(data, parameter);
     }
     super.deactivate(data, parameter);
@@ -107,8 +117,8 @@ public class ConcurrentState extends Context {
      * Dispatch the event in all regions as long as this state is active. If we
      * don not check this, an implicit exist would be ignored by this code.
      */
-    for (int i = 0; i < regions.size() && statedata.active; i++) {
-      HierarchicalState h = regions.get(i);
+    for (int i = 0; i < regions.length && statedata.active; i++) {
+      HierarchicalState h = regions[i];
       if (h.dispatch(data, event, parameter)) {
         dispatched = true;
       }
@@ -122,8 +132,9 @@ public class ConcurrentState extends Context {
      * Dispatch the event on this state. but make sure that all regions are
      * finished before we can leave this state with the final-transition.
      */
-    for (int i = 0; i < transitions.size() && statedata.active; i++) {
-      Transition t = transitions.get(i);
+    Transition[] candidates = getCandidates(event);
+    for (int i = 0; i < candidates.length && statedata.active; i++) {
+      Transition t = candidates[i];
 
       // If not finished, ignore all transitions without an event
       if (t.event == null && !finished(data)) {
@@ -143,8 +154,8 @@ public class ConcurrentState extends Context {
    * Check if all the regions reached their end-states.
    */
   private boolean finished(Metadata data) {
-    for (int i = 0; i < regions.size(); i++) {
-      HierarchicalState h = regions.get(i);
+    for (int i = 0; i < regions.length; i++) {
+      HierarchicalState h = regions[i];
       if (!(data.getData(h).currentState instanceof FinalState)) {
         return false;
       }
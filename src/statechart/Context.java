@@ -35,4 +35,14 @@ public abstract class Context extends State {
   public Context(String name, Context parent, Action entryAction, Action doAction, Action exitAction) throws StatechartException {
     super(name, parent, entryAction, doAction, exitAction);
   }  
+
+  //============================================================================
+
+  /**
+   * Composite states always need a StateRuntimedata object to store the
+   * current substate.
+   */
+  boolean needsRuntimedata() {
+    return true;
+  }
 }
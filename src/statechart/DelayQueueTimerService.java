@@ -0,0 +1,192 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The default timer service. All timeouts are kept in a delay queue ordered
+ * by their expiry which is polled by one thread of the executor. Arming a
+ * timeout costs O(log n). Cancelled entries are dropped as soon as they reach
+ * the head of the queue or swept all at once.
+ */
+public class DelayQueueTimerService extends AbstractTimerService implements Runnable {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  // the longest time the timer thread waits before checking for a sweep
+  private static final long SWEEP_INTERVAL = 100;
+
+  private PriorityQueue<EventQueueEntry> queue = new PriorityQueue<EventQueueEntry>();
+  private ReentrantLock lock = new ReentrantLock();
+  private Condition available = lock.newCondition();
+  private volatile boolean running = false;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  public void start(ExecutorService executor) {
+    this.executor = executor;
+    running = true;
+    executor.execute(this);
+  }
+
+  //============================================================================
+
+  public void schedule(EventQueueEntry entry) {
+    lock.lock();
+    try {
+      arm(entry);
+      queue.offer(entry);
+      if (queue.peek() == entry) {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //============================================================================
+
+  public int poll(long now) {
+    int count = 0;
+    lock.lock();
+    try {
+      EventQueueEntry head = queue.peek();
+      while (head != null && (head.timerState == EventQueueEntry.CANCELLED
+                              || head.getAbsoluteTimeout() <= now)) {
+        if (expire(queue.poll())) {
+          count++;
+        }
+        head = queue.peek();
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (needsSweep()) {
+      purge();
+    }
+    return count;
+  }
+
+  //============================================================================
+
+  public void shutdown() {
+    lock.lock();
+    try {
+      running = false;
+      queue.clear();
+      resetCancelled();
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //============================================================================
+
+  protected int getEntryCount() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //============================================================================
+
+  protected int sweep() {
+    int count = 0;
+    lock.lock();
+    try {
+      Iterator<EventQueueEntry> it = queue.iterator();
+      while (it.hasNext()) {
+        EventQueueEntry entry = it.next();
+        if (claim(entry)) {
+          it.remove();
+          release(entry);
+          count++;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return count;
+  }
+
+  //============================================================================
+
+  /**
+   * Waits for the next expired entry. Cancelled entries at the head are
+   * removed without waiting for their expiry.
+   *
+   * @return The entry or NULL if none expired within the sweep interval.
+   */
+  private EventQueueEntry poll() throws InterruptedException {
+    lock.lock();
+    try {
+      EventQueueEntry head = queue.peek();
+      while (head != null && head.timerState == EventQueueEntry.CANCELLED) {
+        expire(queue.poll());
+        head = queue.peek();
+      }
+      if (head == null) {
+        available.await(SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+        return null;
+      }
+      long delay = head.getDelay(TimeUnit.MILLISECONDS);
+      if (delay > 0) {
+        available.await(Math.min(delay, SWEEP_INTERVAL), TimeUnit.MILLISECONDS);
+        return null;
+      }
+      return queue.poll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  //============================================================================
+  // Inherited by Runnable
+  //============================================================================
+  /**
+   * Dequeues elements from the timeout queue and dispatches them
+   */
+  public void run() {
+    while (running && !executor.isShutdown()) {
+      try {
+        EventQueueEntry event = poll();
+        if (event != null && running) {
+          expire(event);
+        }
+        if (needsSweep()) {
+          purge();
+        }
+      } catch (InterruptedException e) {
+        // ignore the exception. Just run the next loop if necessary
+      }
+    }
+  }
+}
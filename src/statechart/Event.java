@@ -19,6 +19,8 @@
  */
 package statechart;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Interface for an event for the statechart.
  */
@@ -29,7 +31,22 @@ public abstract class Event {
   /**
    * The ID of the event
    */
-  String id = new String();
+  String id = "";
+
+  /**
+   * The code of the id assigned by the EventRegistry or -1 if there is no id
+   */
+  int code = EMPTY_CODE;
+
+  /**
+   * True if equals and toString are not overridden. In this case two events
+   * are equal if their codes are equal.
+   */
+  boolean comparesByCode = false;
+
+  // Per class: bit 1 is set if equals is not overridden, bit 2 for toString
+  private static final ConcurrentHashMap<Class<?>, Integer> defaults = new ConcurrentHashMap<Class<?>, Integer>();
+  private static final int EMPTY_CODE = EventRegistry.getCode("");
   
   //============================================================================
   // METHODS
@@ -38,6 +55,7 @@ public abstract class Event {
    * Creates an event
    */
   public Event() {
+    comparesByCode = getDefaults(getClass()) == 3;
   };
 
   //============================================================================
@@ -48,6 +66,8 @@ public abstract class Event {
    */
   public Event(String id) {
     this.id = id;
+    this.code = id != null ? EventRegistry.getCode(id) : -1;
+    this.comparesByCode = code >= 0 && getDefaults(getClass()) == 3;
   };
 
   //============================================================================
@@ -68,6 +88,65 @@ public abstract class Event {
 
   //============================================================================
 
+  /**
+   * Checks if this event uses the default comparison by id. If a subclass
+   * overrides the equals method, the id cannot be used to preselect the
+   * transitions for this event.
+   */
+  boolean comparesById() {
+    return code >= 0 && (getDefaults(getClass()) & 1) != 0;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the code assigned to the id of this event by the EventRegistry.
+   *
+   * @return The code or -1 if the event has no id.
+   */
+  public int getCode() {
+    return code;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the code for the id returned by toString, which is the code used for
+   * comparing this event with the default equals method.
+   */
+  int getDispatchCode() {
+    return comparesByCode ? code : EventRegistry.lookup(toString());
+  }
+
+  //============================================================================
+
+  /**
+   * Checks which of the methods equals and toString are not overridden by the
+   * given event class. The result is calculated once per class.
+   */
+  private static int getDefaults(Class<?> type) {
+    Integer result = defaults.get(type);
+    if(result == null) {
+      int value = 0;
+      try {
+        if(type.getMethod("equals", Event.class, Metadata.class, Parameter.class)
+            .getDeclaringClass() == Event.class) {
+          value |= 1;
+        }
+        if(type.getMethod("toString").getDeclaringClass() == Event.class) {
+          value |= 2;
+        }
+      } catch (NoSuchMethodException e) {
+        // cannot happen, both methods are declared public by this class
+      }
+      result = value;
+      defaults.put(type, result);
+    }
+    return result;
+  }
+
+  //============================================================================
+
   /**
    * Returns the id
    */
@@ -19,7 +19,8 @@
  */
 package statechart;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 
@@ -33,7 +34,14 @@ public class EventQueueEntry implements Runnable, Delayed {
   //============================================================================
   // ATTRIBUTES
   //============================================================================
-  private static AtomicInteger idCounter = new AtomicInteger(1);
+  // States of the entry within a timer service
+  static final int IDLE = 0;
+  static final int ARMED = 1;
+  static final int CANCELLED = 2;
+
+  private static AtomicLong idCounter = new AtomicLong(1);
+  private static final AtomicIntegerFieldUpdater<EventQueueEntry> timerStateUpdater =
+    AtomicIntegerFieldUpdater.newUpdater(EventQueueEntry.class, "timerState");
   private Statechart statechart = null;
   private State state = null;
   private Metadata data = null;
@@ -42,9 +50,21 @@ public class EventQueueEntry implements Runnable, Delayed {
   private long relativeTimeout = 0;
   private long absoluteTimeout = 0;
   private long added = System.currentTimeMillis();
-  private Integer id;
+  private long id;
   volatile boolean invalid = false;
 
+  // True as long as the entry is in the timeout queue or waits for execution
+  volatile boolean queued = true;
+
+  // One of IDLE, ARMED or CANCELLED
+  volatile int timerState = IDLE;
+
+  // Links of the bucket of a TimingWheelTimerService holding this entry
+  TimingWheelTimerService.Bucket wheelBucket = null;
+  EventQueueEntry wheelPrev = null;
+  EventQueueEntry wheelNext = null;
+  long wheelTick = 0;
+
   //============================================================================
   // METHODS
   //============================================================================  
@@ -59,19 +79,119 @@ public class EventQueueEntry implements Runnable, Delayed {
     this.id = idCounter.getAndIncrement();
   }
 
+  //============================================================================
+
+  /**
+   * Prepares an idle entry for the next use with the same state and event.
+   */
+  void init(Metadata data, Parameter parameter, long timeout) {
+    this.data = data;
+    this.parameter = parameter;
+    this.relativeTimeout = timeout;
+    this.added = System.currentTimeMillis();
+    this.absoluteTimeout = added + relativeTimeout;
+    this.id = idCounter.getAndIncrement();
+    this.invalid = false;
+    this.queued = true;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the entry still has to be dispatched, i.e. it is armed or waits
+   * in the mailbox. A fired timeout stays in the list of its state if a guard
+   * rejected it, but is not pending anymore.
+   */
+  boolean isPending() {
+    return queued && !invalid;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the entry belongs to the given event and can be reused.
+   */
+  boolean isIdle(Event event) {
+    return !queued && this.event == event;
+  }
+
+  //============================================================================
+
+  /**
+   * Cancels the entry. It will not be dispatched anymore and its timeout is
+   * disarmed. The timer service removes the entry lazily.
+   */
+  public void cancel() {
+    invalid = true;
+    if (statechart != null) {
+      statechart.timer.cancel(this);
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Adds the entry to the mailbox of its Metadata object.
+   */
+  void post() {
+    data.getMailbox().post(this, statechart);
+  }
+
+  //============================================================================
+
+  /**
+   * Changes the state within the timer service atomically.
+   */
+  boolean casTimerState(int expect, int update) {
+    return timerStateUpdater.compareAndSet(this, expect, update);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the event of the entry.
+   */
+  Event getEvent() {
+    return event;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the point in time in milliseconds when the entry expires.
+   */
+  long getAbsoluteTimeout() {
+    return absoluteTimeout;
+  }
+
   //============================================================================
   // Inherited by Runnable
   //============================================================================
   public void run() {
+    Journal journal = statechart.journal;
+    if(journal != null && event instanceof TimeoutEvent && journal.deferTimeout(this)) {
+      // posted again when the journal is replayed
+      return;
+    }
+    if(journal != null && event instanceof TimeoutEvent && !invalid && data.isActive(state)) {
+      // the earlier events dispatched by the journal may leave the state
+      journal.journalTimeout(data, state, event, parameter);
+    }
     // if the state this event belongs to is not active anymore ignore it
     if(!invalid && data.isActive(state)) {
+      if(event instanceof TimeoutEvent) {
+        long now = System.currentTimeMillis();
+        statechart.recordTimeoutLag(Math.max(0, now - absoluteTimeout));
+        StatechartListener listener = statechart.listener;
+        if(listener != null) {
+          listener.timeoutFired(data, event, absoluteTimeout, now);
+        }
+      }
       statechart.dispatch(data, event, parameter);
     }
-    statechart = null;
-    state = null;
     data = null;
-    event = null;
     parameter = null;
+    queued = false;
   }
 
   // ============================================================================
@@ -100,7 +220,7 @@ public class EventQueueEntry implements Runnable, Delayed {
       } else if (this.absoluteTimeout > entry.absoluteTimeout) {
         return 1;
       } else {
-        return this.id.compareTo(entry.id);
+        return this.id < entry.id ? -1 : 1;
       }
     } else {
       throw new ClassCastException("Cannot compare an object of " 
@@ -0,0 +1,115 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense integer code to every event id used in the JVM. Events with
+ * the same id get the same code, so events can be compared by an integer
+ * instead of a string. The registry is shared by all statecharts of the JVM
+ * and codes are never released, so it grows without bound with every
+ * distinct id. Therefore event ids should not be generated dynamically. The
+ * states only index the codes of their own transitions.
+ */
+public final class EventRegistry {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+  private static volatile String[] ids = new String[64];
+  private static int size = 0;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  private EventRegistry() {
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the code of the given event id. If the id is not known yet, a new
+   * code is assigned.
+   */
+  public static int getCode(String id) {
+    Integer code = codes.get(id);
+    if(code != null) {
+      return code;
+    }
+    return register(id);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the code of the given event id without registering it.
+   *
+   * @return The code or -1 if the id is not registered.
+   */
+  public static int lookup(String id) {
+    if(id == null) {
+      return -1;
+    }
+    Integer code = codes.get(id);
+    return code != null ? code : -1;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the event id for the given code.
+   *
+   * @return The id or NULL if the code is not assigned.
+   */
+  public static String getId(int code) {
+    String[] current = ids;
+    return code >= 0 && code < current.length ? current[code] : null;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of assigned codes.
+   */
+  public static synchronized int size() {
+    return size;
+  }
+
+  //============================================================================
+
+  /**
+   * Assigns the next free code to the id.
+   */
+  private static synchronized int register(String id) {
+    Integer code = codes.get(id);
+    if(code != null) {
+      return code;
+    }
+    if(size == ids.length) {
+      String[] grown = new String[size * 2];
+      System.arraycopy(ids, 0, grown, 0, size);
+      ids = grown;
+    }
+    ids[size] = id;
+    codes.put(id, size);
+    return size++;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLEncoder;
+
+/**
+ * Saves every snapshot in its own file of a local directory. The file name is
+ * the encoded string of the key. A snapshot is written to a temporary file
+ * first, so a crash never leaves a partly written snapshot.
+ */
+public class FileMetadataStore<K> implements MetadataStore<K> {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private File directory = null;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates the store and the directory if necessary.
+   */
+  public FileMetadataStore(File directory) throws IOException {
+    this.directory = directory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create directory " + directory);
+    }
+  }
+
+  //============================================================================
+
+  public void save(K key, byte[] snapshot) throws IOException {
+    File file = getFile(key);
+    File temp = new File(directory, file.getName() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(snapshot);
+    } finally {
+      out.close();
+    }
+    if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+      throw new IOException("Cannot write " + file);
+    }
+  }
+
+  //============================================================================
+
+  public byte[] load(K key) throws IOException {
+    File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      byte[] snapshot = new byte[(int)in.length()];
+      in.readFully(snapshot);
+      return snapshot;
+    } finally {
+      in.close();
+    }
+  }
+
+  //============================================================================
+
+  public void delete(K key) throws IOException {
+    File file = getFile(key);
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Cannot delete " + file);
+    }
+  }
+
+  //============================================================================
+
+  private File getFile(K key) throws IOException {
+    return new File(directory, URLEncoder.encode(key.toString(), "UTF-8") + ".snapshot");
+  }
+}
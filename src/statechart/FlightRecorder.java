@@ -0,0 +1,202 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A fixed-size ring buffer of the last transitions taken by a Metadata
+ * object. Every step is stored as the event code, the ordinals of the source
+ * and target state and the time in milliseconds, so recording allocates
+ * nothing. Attach it with Metadata.setFlightRecorder. If a dispatch throws a
+ * RuntimeException, the steps are attached to it as a suppressed Trace.
+ * <p>
+ * The recorder is guarded by the lock of its Metadata object like all other
+ * runtime data.
+ */
+public final class FlightRecorder {
+  /**
+   * The dump of a FlightRecorder attached as a suppressed exception.
+   */
+  public static class Trace extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    Trace(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  // The event code for completion transitions without an event
+  public static final int NO_EVENT = -1;
+
+  private final int[] events;
+  private final int[] sources;
+  private final int[] targets;
+  private final long[] times;
+
+  // the total number of recorded steps, the next slot is count % capacity
+  private long count = 0;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a recorder keeping the given number of steps.
+   */
+  public FlightRecorder(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    events = new int[capacity];
+    sources = new int[capacity];
+    targets = new int[capacity];
+    times = new long[capacity];
+  }
+
+  //============================================================================
+
+  /**
+   * Records a step, overwriting the oldest one if the buffer is full.
+   */
+  public void record(int event, int source, int target, long time) {
+    int slot = (int)(count % events.length);
+    events[slot] = event;
+    sources[slot] = source;
+    targets[slot] = target;
+    times[slot] = time;
+    count++;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of steps this recorder keeps.
+   */
+  public int getCapacity() {
+    return events.length;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of steps recorded since the creation or the last clear.
+   * Only the last getCapacity steps are kept.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of steps in the buffer.
+   */
+  public int size() {
+    return (int)Math.min(count, events.length);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the event code of the i-th kept step, 0 being the oldest.
+   *
+   * @return The code assigned by the EventRegistry or NO_EVENT.
+   */
+  public int getEvent(int i) {
+    return events[slot(i)];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the ordinal of the source state of the i-th kept step.
+   */
+  public int getSource(int i) {
+    return sources[slot(i)];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the ordinal of the target state of the i-th kept step.
+   */
+  public int getTarget(int i) {
+    return targets[slot(i)];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the time in milliseconds of the i-th kept step.
+   */
+  public long getTime(int i) {
+    return times[slot(i)];
+  }
+
+  //============================================================================
+
+  /**
+   * Removes all steps.
+   */
+  public void clear() {
+    count = 0;
+  }
+
+  //============================================================================
+
+  /**
+   * Writes the kept steps, one per line and the oldest first, resolving the
+   * ordinals with the given statechart.
+   */
+  public String dump(Statechart chart) {
+    SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+    StringBuilder result = new StringBuilder();
+    int size = size();
+    result.append("last ").append(size).append(" of ").append(count).append(" steps");
+    for (int i = 0; i < size; i++) {
+      int event = getEvent(i);
+      String id = event == NO_EVENT ? "-" : EventRegistry.getId(event);
+      result.append('\n').append(format.format(new Date(getTime(i)))).append(' ')
+          .append(name(chart, getSource(i))).append(" -> ").append(name(chart, getTarget(i)))
+          .append(" [").append(id != null && id.length() != 0 ? id : "#" + event).append(']');
+    }
+    return result.toString();
+  }
+
+  //============================================================================
+
+  private int slot(int i) {
+    if (i < 0 || i >= size()) {
+      throw new IndexOutOfBoundsException("step " + i + " of " + size());
+    }
+    return (int)((count - size() + i) % events.length);
+  }
+
+  //============================================================================
+
+  private static String name(Statechart chart, int ordinal) {
+    State state = chart.getStateByOrdinal(ordinal);
+    return state != null ? state.toString() : "#" + ordinal;
+  }
+}
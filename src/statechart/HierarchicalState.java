@@ -75,6 +75,12 @@ public class HierarchicalState extends Context {
       statedata.currentState.deactivate(data, parameter);
     }
 
+    // a restored history stays active while the context is, it must not
+    // outlive the context. The stored history itself is kept.
+    if(history != null) {
+      data.deactivate(history);
+    }
+
     statedata.currentState = null;
 
     super.deactivate(data, parameter);
@@ -122,8 +128,9 @@ public class HierarchicalState extends Context {
      * - Handle the event with a transition from this state
      * - Handle the event with a transition inherited from the context
      */
-    for(int i = 0; i < transitions.size(); i++) {
-      Transition t = transitions.get(i);
+    Transition[] candidates = getCandidates(event);
+    for(int i = 0; i < candidates.length; i++) {
+      Transition t = candidates[i];
 
       // Filter all finishing transitions if endstate is not active
       if(!(statedata.currentState instanceof FinalState) && !t.hasEvent()) {
@@ -0,0 +1,232 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manages the Metadata objects of a statechart by a user defined key, e.g. a
+ * session or device id. The keys are distributed over a number of shards.
+ * Every shard has its own map and its own thread, and all asynchronous and
+ * timeout events of a key are dispatched by the thread of its shard. So the
+ * Metadata objects are never contended by several threads, and the
+ * throughput scales with the number of shards.
+ */
+public class InstanceRegistry<K> {
+  /**
+   * A shard holds the Metadata objects of its keys and owns the thread
+   * dispatching their events.
+   */
+  static class Shard<K> {
+    final ConcurrentHashMap<K, Metadata> instances = new ConcurrentHashMap<K, Metadata>();
+    final ExecutorService executor;
+
+    Shard(ExecutorService executor) {
+      this.executor = executor;
+    }
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private Statechart statechart = null;
+  private MetadataFactory<K> factory = null;
+  private Shard<K>[] shards = null;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a registry with one shard per available processor, creating
+   * plain Metadata objects.
+   */
+  public InstanceRegistry(String name, Statechart statechart) {
+    this(name, statechart, Runtime.getRuntime().availableProcessors(), null);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a registry.
+   *
+   * @param name The name of the shard threads.
+   * @param statechart The statechart of all instances.
+   * @param shards The number of shards and threads.
+   * @param factory Creates the Metadata objects. If NULL plain Metadata
+   *          objects are created.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public InstanceRegistry(String name, Statechart statechart, int shards, MetadataFactory<K> factory) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("At least one shard is needed");
+    }
+    this.statechart = statechart;
+    this.factory = factory;
+    this.shards = new Shard[shards];
+    // the threads are daemon threads, their work is bound to the statechart
+    Statechart.StatechartThreadFactory threads = new Statechart.StatechartThreadFactory(name, true);
+    for (int i = 0; i < shards; i++) {
+      this.shards[i] = new Shard<K>(Executors.newSingleThreadExecutor(threads));
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the Metadata object of the key.
+   *
+   * @return The object or NULL if the key is unknown.
+   */
+  public Metadata get(K key) {
+    return shard(key).instances.get(key);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the Metadata object of the key. If the key is unknown a new object
+   * is created and the statechart is started asynchronously for it, before
+   * any other event of the key is dispatched.
+   *
+   * @param parameter The parameter used for starting the statechart.
+   */
+  public Metadata getOrCreate(K key, Parameter parameter) {
+    Shard<K> shard = shard(key);
+    Metadata data = shard.instances.get(key);
+    if (data == null) {
+      Metadata created = factory != null ? factory.createMetadata(key) : new Metadata();
+      created.affinity = shard.executor;
+      // start the object before it is published, so the start is the first
+      // entry of its mailbox whoever schedules it
+      statechart.queueStart(created, parameter);
+      data = shard.instances.putIfAbsent(key, created);
+      if (data == null) {
+        data = created;
+        data.getMailbox().schedule();
+      } else {
+        // the object of the winner is used, this one is never scheduled
+        created.reset();
+      }
+    }
+    return data;
+  }
+
+  //============================================================================
+
+  /**
+   * Removes the key and cancels the armed timeouts of its Metadata object, so
+   * they do not fire for a removed instance. Events of the key already queued
+   * are still dispatched.
+   *
+   * @return The Metadata object of the key or NULL if the key is unknown.
+   */
+  public Metadata remove(K key) {
+    Metadata data = shard(key).instances.remove(key);
+    if (data != null) {
+      synchronized (data) {
+        data.cancelTimeouts(statechart);
+      }
+    }
+    return data;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of keys.
+   */
+  public int size() {
+    int size = 0;
+    for (Shard<K> shard : shards) {
+      size += shard.instances.size();
+    }
+    return size;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of shards.
+   */
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the shard of the key. Events of keys in the same shard are
+   * dispatched by the same thread.
+   */
+  public int getShard(K key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return (h & 0x7fffffff) % shards.length;
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event for the key by the thread of its shard. Creates and
+   * starts the Metadata object of an unknown key first.
+   */
+  public void dispatchAsynchron(K key, Event event) {
+    dispatchAsynchron(key, event, Parameter.EMPTY);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event for the key by the thread of its shard. Creates and
+   * starts the Metadata object of an unknown key first, using the given
+   * parameter.
+   */
+  public void dispatchAsynchron(K key, Event event, Parameter parameter) {
+    statechart.dispatchAsynchron(getOrCreate(key, parameter), event, parameter);
+  }
+
+  //============================================================================
+
+  /**
+   * Shuts down the threads of the shards. Waits 60 seconds at most for the
+   * queued events.
+   */
+  public void shutdown() {
+    for (Shard<K> shard : shards) {
+      shard.executor.shutdown();
+    }
+    try {
+      for (Shard<K> shard : shards) {
+        shard.executor.awaitTermination(60, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      // ignore and just exit the method
+    }
+  }
+
+  //============================================================================
+
+  private Shard<K> shard(K key) {
+    return shards[getShard(key)];
+  }
+}
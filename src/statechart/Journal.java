@@ -0,0 +1,747 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal in front of the dispatch methods of a statechart.
+ * Every start and every event is written as a record (sequence number,
+ * timestamp, instance key, event, parameter) to a segment file before it is
+ * dispatched. The records are written in batches by the journal thread and
+ * synced once per batch (group commit): a batch is collected for at most the
+ * commit window or until it holds the maximum number of records.
+ * <p>
+ * The events of one Metadata object are dispatched in the order of their
+ * records, whether they were passed synchronously or asynchronously. A fired
+ * timeout of a journaled Metadata object is journaled as well before it is
+ * dispatched, so it is replayed at the same position.
+ * <p>
+ * The synchronous methods wait for the commit without holding the lock of the
+ * Metadata object, so other threads can dispatch to it meanwhile.
+ * <p>
+ * After a crash the segments are replayed into fresh Metadata objects,
+ * optionally starting after the sequence number of a snapshot. The actions
+ * are executed again during the replay. Timeouts armed by the replayed events
+ * use their full delay from the time of the replay. Timeouts firing during
+ * the replay are held back until it is finished.
+ */
+public class Journal implements Runnable {
+  /**
+   * A start or event waiting for the commit of its record.
+   */
+  static class Pending {
+    final Metadata data;
+    final int type;
+    final Event event;
+    final Parameter parameter;
+    final boolean synchronous;
+    long sequence = 0;
+
+    // the result of a synchronous start or dispatch, set by the thread
+    // delivering it
+    boolean handled = false;
+    RuntimeException exception = null;
+
+    Pending(Metadata data, int type, Event event, Parameter parameter, boolean synchronous) {
+      this.data = data;
+      this.type = type;
+      this.event = event;
+      this.parameter = parameter;
+      this.synchronous = synchronous;
+    }
+  }
+
+  /**
+   * Dispatches the committed asynchronous events of a Metadata object up to
+   * a record from its mailbox, unless a synchronous dispatch or a timeout did
+   * so already.
+   */
+  class Delivery extends EventQueueEntry {
+    private final Pending pending;
+
+    Delivery(Pending pending) {
+      super(statechart, statechart, pending.data, pending.event, pending.parameter, 0);
+      this.pending = pending;
+    }
+
+    public void run() {
+      deliver(pending.data, pending.sequence);
+    }
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final int RECORD_START = 0;
+  private static final int RECORD_EVENT = 1;
+  private static final int RECORD_TIMEOUT = 2;
+
+  // the largest segment which can be read into one array
+  private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE - 8;
+
+  private File directory = null;
+  private Statechart statechart = null;
+  private JournalCodec codec = null;
+  private long commitWindow = 0;
+  private int maxBatch = 0;
+  private long segmentSize = 0;
+
+  // guards all fields below
+  private final Object lock = new Object();
+  private MetadataCodec.Output record = new MetadataCodec.Output();
+  private MetadataCodec.Output buffer = new MetadataCodec.Output();
+  private MetadataCodec.Output spare = new MetadataCodec.Output();
+  private ArrayList<Pending> asynchron = new ArrayList<Pending>();
+  // the starts and events not yet dispatched, by Metadata object
+  private IdentityHashMap<Metadata, ArrayDeque<Pending>> undelivered =
+    new IdentityHashMap<Metadata, ArrayDeque<Pending>>();
+  // the keys of the journaled Metadata objects for journaling their timeouts
+  private WeakHashMap<Metadata, String> keys = new WeakHashMap<Metadata, String>();
+  private int buffered = 0;
+  private long firstBuffered = 0;
+  private long sequence = 0;
+  private long committed = 0;
+  private IOException failure = null;
+  private boolean closed = false;
+  // the timeouts fired during a replay, posted again after it
+  private boolean replaying = false;
+  private ArrayList<EventQueueEntry> deferred = new ArrayList<EventQueueEntry>();
+
+  // only used by the journal thread after the construction
+  private FileChannel channel = null;
+  private Thread committer = null;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Opens the journal with a commit window of 2 milliseconds, batches of at
+   * most 1000 records and segments of 64 MB.
+   */
+  public Journal(File directory, Statechart statechart, JournalCodec codec) throws IOException {
+    this(directory, statechart, codec, 2, 1000, 64L << 20);
+  }
+
+  //============================================================================
+
+  /**
+   * Opens the journal in the given directory. Appending continues after the
+   * last valid record, a partly written record at the end is cut off.
+   *
+   * @param directory The directory of the segment files.
+   * @param statechart The statechart the events are dispatched to.
+   * @param codec Converts events and parameters into bytes.
+   * @param commitWindow The time in milliseconds a batch is collected before
+   *          it is written.
+   * @param maxBatch The maximum number of records per batch.
+   * @param segmentSize The size in bytes after which a new segment file is
+   *          started. At most 1 GB, a segment is read as a whole.
+   */
+  public Journal(File directory, Statechart statechart, JournalCodec codec,
+      long commitWindow, int maxBatch, long segmentSize) throws IOException {
+    if (segmentSize > MAX_SEGMENT_SIZE / 2) {
+      throw new IllegalArgumentException("Segment size " + segmentSize + " is too large");
+    }
+    this.directory = directory;
+    this.statechart = statechart;
+    this.codec = codec;
+    this.commitWindow = commitWindow;
+    this.maxBatch = Math.max(1, maxBatch);
+    this.segmentSize = segmentSize;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create journal directory " + directory);
+    }
+    File[] segments = getSegments();
+    if (segments.length > 0) {
+      File last = segments[segments.length - 1];
+      int valid = readSegment(last, 0, null, null);
+      channel = new RandomAccessFile(last, "rw").getChannel();
+      channel.truncate(valid);
+      channel.position(valid);
+      if (sequence == 0) {
+        // the last segment was empty, continue with its number
+        sequence = getFirstSequence(last) - 1;
+      }
+    } else {
+      channel = openSegment(1);
+    }
+    committed = sequence;
+
+    committer = new Thread(this, "journal-" + directory.getName());
+    committer.setDaemon(true);
+    committer.start();
+    statechart.journal = this;
+  }
+
+  //============================================================================
+
+  /**
+   * Journals the start and starts the statechart for the Metadata object
+   * after the record has been committed.
+   */
+  public boolean start(String key, Metadata data, Parameter parameter) throws IOException {
+    Pending pending = new Pending(data, RECORD_START, null, parameter, true);
+    append(key, data, RECORD_START, null, parameter, pending);
+    return complete(pending);
+  }
+
+  //============================================================================
+
+  /**
+   * Journals the event and dispatches it after the record has been
+   * committed. Asynchronous events of the Metadata object journaled before
+   * are dispatched first.
+   */
+  public boolean dispatch(String key, Metadata data, Event event, Parameter parameter)
+      throws IOException {
+    Pending pending = new Pending(data, RECORD_EVENT, event, parameter, true);
+    append(key, data, RECORD_EVENT, codec.encodeEvent(event), parameter, pending);
+    return complete(pending);
+  }
+
+  //============================================================================
+
+  /**
+   * Journals the event and returns immediately. The event is dispatched
+   * asynchronously by the journal thread after the record has been committed.
+   * The events are dispatched in the order of their records.
+   */
+  public void dispatchAsynchron(String key, Metadata data, Event event, Parameter parameter)
+      throws IOException {
+    append(key, data, RECORD_EVENT, codec.encodeEvent(event), parameter,
+           new Pending(data, RECORD_EVENT, event, parameter, false));
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the sequence number of the last committed record. A snapshot taken
+   * now reflects at least all records up to this number.
+   */
+  public long getCommittedSequence() {
+    synchronized (lock) {
+      return committed;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Replays all records into the given Metadata objects.
+   *
+   * @see #replay(Map, MetadataFactory, long)
+   */
+  public long replay(Map<String, Metadata> instances) throws IOException {
+    return replay(instances, null, 0);
+  }
+
+  //============================================================================
+
+  /**
+   * Replays the records with a sequence number greater than the given one,
+   * e.g. the sequence number of the snapshot the instances were restored
+   * from. Should be called before new records are appended. Timeouts
+   * firing during the replay are dispatched after it.
+   *
+   * @param instances The Metadata objects by key. Objects for unknown keys
+   *          are created and added.
+   * @param factory Creates the Metadata objects for unknown keys. If NULL
+   *          plain Metadata objects are created.
+   * @param fromSequence Only records after this sequence number are replayed.
+   * @return The sequence number of the last replayed record.
+   */
+  public long replay(Map<String, Metadata> instances, MetadataFactory<String> factory,
+      long fromSequence) throws IOException {
+    File[] segments = getSegments();
+    long last = fromSequence;
+    ArrayList<EventQueueEntry> fired;
+    synchronized (lock) {
+      replaying = true;
+    }
+    try {
+      for (int i = 0; i < segments.length; i++) {
+        // skip segments which only contain older records
+        if (i + 1 < segments.length && getFirstSequence(segments[i + 1]) <= fromSequence + 1) {
+          continue;
+        }
+        readSegment(segments[i], fromSequence, instances, factory);
+      }
+    } finally {
+      synchronized (lock) {
+        replaying = false;
+        last = Math.max(last, committed);
+        fired = deferred;
+        deferred = new ArrayList<EventQueueEntry>();
+      }
+      // they are journaled now, or dropped if the replay left their state
+      for (int i = 0; i < fired.size(); i++) {
+        fired.get(i).post();
+      }
+    }
+    return last;
+  }
+
+  //============================================================================
+
+  /**
+   * Commits the outstanding records and closes the journal.
+   */
+  public void close() throws IOException {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    if (statechart.journal == this) {
+      statechart.journal = null;
+    }
+    try {
+      committer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+    synchronized (lock) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Adds a record to the current batch.
+   *
+   * @return The sequence number of the record.
+   */
+  private long append(String key, Metadata data, int type, byte[] eventBytes,
+      Parameter parameter, Pending pending) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF8);
+    byte[] parameterBytes = codec.encodeParameter(parameter);
+
+    synchronized (lock) {
+      if (failure != null) {
+        throw new IOException("Journal failed: " + failure.getMessage(), failure);
+      }
+      if (closed) {
+        throw new IOException("Journal is closed");
+      }
+      long number = ++sequence;
+      record.length = 0;
+      record.writeVarLong(number);
+      record.writeVarLong(System.currentTimeMillis());
+      record.writeVarLong(keyBytes.length);
+      record.write(keyBytes, 0, keyBytes.length);
+      record.write(type);
+      if (eventBytes != null) {
+        record.writeVarLong(eventBytes.length);
+        record.write(eventBytes, 0, eventBytes.length);
+      }
+      record.writeVarLong(parameterBytes.length);
+      record.write(parameterBytes, 0, parameterBytes.length);
+
+      CRC32 crc = new CRC32();
+      crc.update(record.buffer, 0, record.length);
+      buffer.writeVarLong(record.length);
+      buffer.write(record.buffer, 0, record.length);
+      buffer.writeInt((int)crc.getValue());
+
+      if (buffered++ == 0) {
+        firstBuffered = number;
+        lock.notifyAll();
+      } else if (buffered >= maxBatch) {
+        lock.notifyAll();
+      }
+      keys.put(data, key);
+      if (pending != null) {
+        pending.sequence = number;
+        if (!pending.synchronous) {
+          asynchron.add(pending);
+        }
+        ArrayDeque<Pending> queue = undelivered.get(data);
+        if (queue == null) {
+          queue = new ArrayDeque<Pending>();
+          undelivered.put(data, queue);
+        }
+        queue.add(pending);
+      }
+      return number;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Waits for the commit of a synchronous start or event and delivers it
+   * together with the events of its Metadata object journaled before. The
+   * lock of the Metadata object is only taken for the delivery.
+   *
+   * @return The result of the start or dispatch.
+   */
+  private boolean complete(Pending pending) throws IOException {
+    try {
+      awaitCommit(pending.sequence);
+    } catch (IOException e) {
+      synchronized (lock) {
+        ArrayDeque<Pending> queue = undelivered.get(pending.data);
+        if (queue != null && queue.remove(pending) && queue.isEmpty()) {
+          undelivered.remove(pending.data);
+        }
+      }
+      throw e;
+    }
+    synchronized (pending.data) {
+      deliver(pending.data, pending.sequence);
+    }
+    if (pending.exception != null) {
+      throw pending.exception;
+    }
+    return pending.handled;
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the starts and events of the Metadata object up to the given
+   * record in the order of their records. The caller holds the lock of the
+   * Metadata object and the records are committed. The result of a
+   * synchronous start or event is kept for the thread waiting for it.
+   */
+  private void deliver(Metadata data, long number) {
+    while (true) {
+      Pending next;
+      synchronized (lock) {
+        ArrayDeque<Pending> queue = undelivered.get(data);
+        if (queue == null || queue.peek().sequence > number) {
+          return;
+        }
+        next = queue.poll();
+        if (queue.isEmpty()) {
+          undelivered.remove(data);
+        }
+      }
+      if (!next.synchronous) {
+        statechart.dispatch(next.data, next.event, next.parameter);
+      } else {
+        try {
+          next.handled = next.type == RECORD_START ? statechart.start(next.data, next.parameter)
+            : statechart.dispatch(next.data, next.event, next.parameter);
+        } catch (RuntimeException e) {
+          next.exception = e;
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Holds back a timeout fired while the journal is replayed, as the records
+   * still to be replayed may contain it. Called by the mailbox before the
+   * timeout is journaled.
+   *
+   * @return True if the timeout is dispatched after the replay.
+   */
+  boolean deferTimeout(EventQueueEntry entry) {
+    synchronized (lock) {
+      if (!replaying) {
+        return false;
+      }
+      deferred.add(entry);
+      return true;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Journals a fired timeout of a journaled Metadata object and dispatches
+   * its asynchronous events journaled before. Called by the mailbox holding
+   * the lock of the Metadata object, before the timeout is dispatched. If the
+   * journal failed the timeout is dispatched without a record, the failure is
+   * reported by the next append or by close.
+   */
+  void journalTimeout(Metadata data, State state, Event event, Parameter parameter) {
+    String key;
+    synchronized (lock) {
+      key = keys.get(data);
+    }
+    if (key == null) {
+      return;
+    }
+    MetadataCodec.Output timeout = new MetadataCodec.Output();
+    timeout.writeVarLong(state.ordinal);
+    timeout.writeVarLong(MetadataCodec.indexOf(state, event));
+    try {
+      long number = append(key, data, RECORD_TIMEOUT, timeout.toByteArray(), parameter, null);
+      awaitCommit(number);
+      deliver(data, number);
+    } catch (IOException e) {
+      // reported by the next append or close
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Waits until the record with the given sequence number is committed.
+   */
+  private void awaitCommit(long number) throws IOException {
+    synchronized (lock) {
+      while (committed < number) {
+        if (failure != null) {
+          throw new IOException("Journal failed: " + failure.getMessage(), failure);
+        }
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for the commit");
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Reads the valid records of a segment. If no instances are given the
+   * records are only counted.
+   *
+   * @return The length of the valid part of the segment.
+   */
+  private int readSegment(File file, long fromSequence, Map<String, Metadata> instances,
+      MetadataFactory<String> factory) throws IOException {
+    byte[] bytes;
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      long length = in.length();
+      if (length > MAX_SEGMENT_SIZE) {
+        throw new IOException("Segment " + file + " is too large: " + length + " bytes");
+      }
+      bytes = new byte[(int)length];
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+
+    MetadataCodec.Input input = new MetadataCodec.Input(bytes);
+    int valid = 0;
+    try {
+      while (input.position < bytes.length) {
+        byte[] body = input.read(input.readVarInt());
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if (input.readInt() != (int)crc.getValue()) {
+          break;
+        }
+        valid = input.position;
+
+        MetadataCodec.Input fields = new MetadataCodec.Input(body);
+        long number = fields.readVarLong();
+        fields.readVarLong(); // the timestamp
+        if (instances == null) {
+          sequence = number;
+          continue;
+        }
+        if (number <= fromSequence) {
+          continue;
+        }
+        String key = new String(fields.read(fields.readVarInt()), UTF8);
+        int type = fields.read();
+        byte[] eventBytes = type != RECORD_START ? fields.read(fields.readVarInt()) : null;
+        Parameter parameter = codec.decodeParameter(fields.read(fields.readVarInt()));
+
+        Metadata data = instances.get(key);
+        if (data == null) {
+          data = factory != null ? factory.createMetadata(key) : new Metadata();
+          instances.put(key, data);
+        }
+        synchronized (lock) {
+          keys.put(data, key);
+        }
+        if (type == RECORD_START) {
+          statechart.start(data, parameter);
+        } else if (type == RECORD_EVENT) {
+          statechart.dispatch(data, codec.decodeEvent(eventBytes), parameter);
+        } else {
+          replayTimeout(data, new MetadataCodec.Input(eventBytes), parameter);
+        }
+      }
+    } catch (StatechartException e) {
+      // a partly written record at the end of the segment
+    }
+    return valid;
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches a journaled timeout if its state is still active, like the
+   * mailbox did when the timeout fired. The timeout armed by the replay is
+   * consumed by it.
+   */
+  private void replayTimeout(Metadata data, MetadataCodec.Input timeout, Parameter parameter)
+      throws StatechartException, IOException {
+    State state = statechart.getStateByOrdinal(timeout.readVarInt());
+    int index = timeout.readVarInt();
+    if (state == null || index < 0 || index >= state.getTransitionArray().length
+        || !(state.getTransitionArray()[index].event instanceof TimeoutEvent)) {
+      throw new IOException("Journaled timeout does not match the statechart");
+    }
+    Event event = state.getTransitionArray()[index].event;
+    synchronized (data) {
+      if (data.isActive(state)) {
+        StateRuntimedata d = data.getData(state);
+        for (int i = 0; d != null && i < d.timeoutEvents.size(); i++) {
+          EventQueueEntry entry = d.timeoutEvents.get(i);
+          if (entry.getEvent() == event && entry.isPending()) {
+            entry.cancel();
+            break;
+          }
+        }
+        statechart.dispatch(data, event, parameter);
+      }
+    }
+  }
+
+  //============================================================================
+
+  private File[] getSegments() {
+    File[] segments = directory.listFiles();
+    ArrayList<File> result = new ArrayList<File>();
+    for (File file : segments != null ? segments : new File[0]) {
+      if (file.getName().matches("segment-\\d{20}\\.log")) {
+        result.add(file);
+      }
+    }
+    File[] sorted = result.toArray(new File[result.size()]);
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  //============================================================================
+
+  private static long getFirstSequence(File segment) {
+    return Long.parseLong(segment.getName().substring(8, 28));
+  }
+
+  //============================================================================
+
+  private FileChannel openSegment(long firstSequence) throws IOException {
+    File file = new File(directory, String.format("segment-%020d.log", firstSequence));
+    return new RandomAccessFile(file, "rw").getChannel();
+  }
+
+  //============================================================================
+
+  /**
+   * Writes a batch and syncs it to the disk.
+   */
+  private void write(MetadataCodec.Output batch, long first) throws IOException {
+    if (channel.position() >= segmentSize) {
+      channel.close();
+      channel = openSegment(first);
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(batch.buffer, 0, batch.length);
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    channel.force(false);
+  }
+
+  //============================================================================
+  // Inherited by Runnable
+  //============================================================================
+  /**
+   * Writes the batches until the journal is closed.
+   */
+  public void run() {
+    while (true) {
+      MetadataCodec.Output batch;
+      ArrayList<Pending> ready;
+      long first;
+      long last;
+      synchronized (lock) {
+        try {
+          while (buffered == 0 && !closed) {
+            lock.wait();
+          }
+          // collect more records for the commit window
+          long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(commitWindow);
+          long remaining;
+          while (buffered < maxBatch && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+          }
+        } catch (InterruptedException e) {
+          closed = true;
+        }
+        if (buffered == 0) {
+          return;
+        }
+        batch = buffer;
+        buffer = spare;
+        spare = batch;
+        ready = asynchron;
+        asynchron = new ArrayList<Pending>();
+        first = firstBuffered;
+        last = sequence;
+        buffered = 0;
+      }
+
+      try {
+        write(batch, first);
+      } catch (IOException e) {
+        synchronized (lock) {
+          failure = e;
+          lock.notifyAll();
+        }
+        return;
+      }
+      batch.length = 0;
+
+      synchronized (lock) {
+        committed = last;
+        lock.notifyAll();
+      }
+      for (int i = 0; i < ready.size(); i++) {
+        Pending pending = ready.get(i);
+        statechart.post(pending.data, new Delivery(pending));
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * Converts the events and parameters written to a Journal into bytes and
+ * back.
+ */
+public interface JournalCodec {
+  /**
+   * Encodes the event, e.g. by its id.
+   */
+  public byte[] encodeEvent(Event event);
+
+  /**
+   * Creates an event equal to the encoded one.
+   */
+  public Event decodeEvent(byte[] bytes);
+
+  /**
+   * Encodes the parameter. May return an empty array if the parameter holds
+   * no data needed for the replay.
+   */
+  public byte[] encodeParameter(Parameter parameter);
+
+  /**
+   * Creates the parameter used for the replay of a record.
+   */
+  public Parameter decodeParameter(byte[] bytes);
+}
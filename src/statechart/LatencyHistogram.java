@@ -0,0 +1,202 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A log-linear histogram of non-negative values, e.g. durations in
+ * nanoseconds. Every power of two is split into 8 linear buckets, so a
+ * percentile is accurate to 12.5%. The counters are striped over several
+ * arrays indexed by the recording thread, so recording is lock-free and
+ * threads rarely contend on the same counter. A stripe is allocated when a
+ * thread first records into it, so an unused histogram is small.
+ */
+public class LatencyHistogram {
+  /**
+   * The merged counters of a histogram at one point in time.
+   */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Snapshot(long[] counts, long sum, long max) {
+      long total = 0;
+      for (int i = 0; i < counts.length; i++) {
+        total += counts[i];
+      }
+      this.counts = counts;
+      this.count = total;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     */
+    public double getMean() {
+      return count == 0 ? 0 : (double)sum / count;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Gets the value below or equal to which the given percentage of the
+     * values are, e.g. 99.9. The upper bound of the bucket is returned, but
+     * never more than the largest value.
+     */
+    public long getPercentile(double percent) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long)Math.ceil(percent / 100.0 * count);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= Math.max(1, rank)) {
+          return Math.min(upperBound(i), max);
+        }
+      }
+      return max;
+    }
+
+    /**
+     * Gets the count, mean, percentiles 50, 90, 99, 99.9 and the maximum.
+     */
+    public String toString() {
+      return "count=" + count + " mean=" + (long)getMean() + " p50=" + getPercentile(50)
+        + " p90=" + getPercentile(90) + " p99=" + getPercentile(99)
+        + " p99.9=" + getPercentile(99.9) + " max=" + max;
+    }
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final int SUB_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+  private static final int STRIPES;
+
+  static {
+    int stripes = 1;
+    while (stripes < Runtime.getRuntime().availableProcessors()) {
+      stripes <<= 1;
+    }
+    STRIPES = stripes;
+  }
+
+  // per stripe the buckets followed by the sum and the maximum, NULL until
+  // the first value of the stripe is recorded
+  private final AtomicReferenceArray<AtomicLongArray> stripes =
+    new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    int i = (int)Thread.currentThread().getId() & (STRIPES - 1);
+    AtomicLongArray stripe = stripes.get(i);
+    if (stripe == null) {
+      stripes.compareAndSet(i, null, new AtomicLongArray(BUCKETS + 2));
+      stripe = stripes.get(i);
+    }
+    stripe.incrementAndGet(index(value));
+    stripe.addAndGet(BUCKETS, value);
+    long max;
+    while (value > (max = stripe.get(BUCKETS + 1))
+           && !stripe.compareAndSet(BUCKETS + 1, max, value)) {
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Merges the stripes. Values recorded meanwhile may be missing.
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long sum = 0;
+    long max = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      AtomicLongArray stripe = stripes.get(i);
+      if (stripe == null) {
+        continue;
+      }
+      for (int j = 0; j < BUCKETS; j++) {
+        counts[j] += stripe.get(j);
+      }
+      sum += stripe.get(BUCKETS);
+      max = Math.max(max, stripe.get(BUCKETS + 1));
+    }
+    return new Snapshot(counts, sum, max);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the bucket of a value. Values below 8 have their own bucket, above
+   * every power of two is divided into 8 buckets.
+   */
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int)value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BITS;
+    return ((shift + 1) << SUB_BITS) + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the largest value of a bucket.
+   */
+  static long upperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index >> SUB_BITS) - 1;
+    long lower = (long)(SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
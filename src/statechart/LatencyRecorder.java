@@ -0,0 +1,217 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records latency histograms of a statechart: the execution time of every
+ * transition including the exit and entry actions, the time of the entry, do
+ * and exit actions of every state, and the time every state was active
+ * (dwell time). Durations are in nanoseconds, dwell times in milliseconds as
+ * they are computed from StateRuntimedata.currentTime.
+ * <p>
+ * The recorder must be created after all states and transitions have been
+ * added. Histograms are only created for the actions a state has. The dwell
+ * time is only available for states with runtime data, BitsetMetadata
+ * objects keep none for states without timeouts.
+ *
+ * <pre>
+ * LatencyRecorder recorder = new LatencyRecorder(chart);
+ * chart.addListener(recorder);
+ * ...
+ * System.out.println(recorder.snapshot());
+ * </pre>
+ */
+public class LatencyRecorder extends StatechartListenerAdapter {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private Statechart statechart = null;
+
+  // indexed by the ordinal of the state
+  private LatencyHistogram[] entry = null;
+  private LatencyHistogram[] activity = null;
+  private LatencyHistogram[] exit = null;
+  private LatencyHistogram[] dwell = null;
+
+  // never changed after the construction, so read without locking
+  private IdentityHashMap<Transition, LatencyHistogram> transitions =
+    new IdentityHashMap<Transition, LatencyHistogram>();
+  private TreeMap<String, LatencyHistogram> names = new TreeMap<String, LatencyHistogram>();
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates the histograms for all states and transitions of the statechart.
+   */
+  public LatencyRecorder(Statechart statechart) {
+    this.statechart = statechart;
+    State[] states = statechart.ordinals;
+    entry = new LatencyHistogram[states.length];
+    activity = new LatencyHistogram[states.length];
+    exit = new LatencyHistogram[states.length];
+    dwell = new LatencyHistogram[states.length];
+
+    for (int i = 0; i < states.length; i++) {
+      State state = states[i];
+      String name = state.toString();
+      if (state.entryAction != null) {
+        entry[i] = create(name + ".entry");
+      }
+      if (state.doAction != null) {
+        activity[i] = create(name + ".do");
+      }
+      if (state.exitAction != null) {
+        exit[i] = create(name + ".exit");
+      }
+      dwell[i] = create(name + ".dwell");
+
+      for (int j = 0; j < state.getTransitionArray().length; j++) {
+        Transition t = state.getTransitionArray()[j];
+        LatencyHistogram h = create(name + " -> " + t.activate[t.activate.length - 1]
+                                    + " #" + j);
+        transitions.put(t, h);
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the histogram of the execution times of a transition.
+   */
+  public LatencyHistogram getTransitionHistogram(Transition transition) {
+    return transitions.get(transition);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the histogram of the execution times of the entry action of a state,
+   * NULL if the state has none.
+   */
+  public LatencyHistogram getEntryHistogram(State state) {
+    return entry[state.ordinal];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the histogram of the execution times of the do action of a state,
+   * NULL if the state has none.
+   */
+  public LatencyHistogram getDoHistogram(State state) {
+    return activity[state.ordinal];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the histogram of the execution times of the exit action of a state,
+   * NULL if the state has none.
+   */
+  public LatencyHistogram getExitHistogram(State state) {
+    return exit[state.ordinal];
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the histogram of the times in milliseconds a state was active.
+   */
+  public LatencyHistogram getDwellHistogram(State state) {
+    return dwell[state.ordinal];
+  }
+
+  //============================================================================
+
+  /**
+   * Takes a snapshot of all histograms with at least one value, sorted by
+   * name. The names are "state.entry", "state.do", "state.exit", "state.dwell"
+   * and "source -> target #index" for the transitions.
+   */
+  public Map<String, LatencyHistogram.Snapshot> snapshot() {
+    TreeMap<String, LatencyHistogram.Snapshot> result = new TreeMap<String, LatencyHistogram.Snapshot>();
+    for (Map.Entry<String, LatencyHistogram> e : names.entrySet()) {
+      LatencyHistogram.Snapshot snapshot = e.getValue().snapshot();
+      if (snapshot.getCount() > 0) {
+        result.put(e.getKey(), snapshot);
+      }
+    }
+    return result;
+  }
+
+  //============================================================================
+
+  private LatencyHistogram create(String name) {
+    LatencyHistogram histogram = new LatencyHistogram();
+    names.put(name, histogram);
+    return histogram;
+  }
+
+  //============================================================================
+  // Inherited by StatechartListener
+  //============================================================================
+  public void stateExited(Metadata data, State state) {
+    StateRuntimedata d = data.getData(state);
+    if (d != null && state.statechart == statechart && state.ordinal < dwell.length) {
+      dwell[state.ordinal].record(System.currentTimeMillis() - d.currentTime);
+    }
+  }
+
+  //============================================================================
+
+  public void transitionExecuted(Metadata data, Transition transition, long nanos) {
+    LatencyHistogram histogram = transitions.get(transition);
+    if (histogram != null) {
+      histogram.record(nanos);
+    }
+  }
+
+  //============================================================================
+
+  public void actionExecuted(Metadata data, State state, int kind, Action action, long nanos) {
+    if (state.statechart != statechart || state.ordinal >= entry.length) {
+      return;
+    }
+    LatencyHistogram histogram = null;
+    switch (kind) {
+      case ENTRY_ACTION:
+        histogram = entry[state.ordinal];
+        break;
+      case DO_ACTION:
+        histogram = activity[state.ordinal];
+        break;
+      case EXIT_ACTION:
+        histogram = exit[state.ordinal];
+        break;
+      default:
+        // the transition histograms include the action
+        break;
+    }
+    if (histogram != null) {
+      histogram.record(nanos);
+    }
+  }
+}
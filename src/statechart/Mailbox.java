@@ -0,0 +1,165 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The queue of asynchronous events of a Metadata object. The mailbox is
+ * scheduled onto the threadpool at most once at a time and dispatches up to
+ * a batch of events while holding the lock of the Metadata. So the events of
+ * one Metadata object are dispatched in FIFO order and pool threads do not
+ * block each other on the same Metadata.
+ */
+final class Mailbox implements Runnable {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private final Metadata data;
+  private final ConcurrentLinkedQueue<EventQueueEntry> queue = new ConcurrentLinkedQueue<EventQueueEntry>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  private volatile Statechart statechart = null;
+
+  // the time the running batch waited for the lock of the Metadata object,
+  // reported with its first event. Guarded by the lock of the Metadata.
+  private long lockWait = 0;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  Mailbox(Metadata data) {
+    this.data = data;
+  }
+
+  //============================================================================
+
+  /**
+   * Adds an entry and schedules the mailbox if it is not scheduled already.
+   */
+  void post(EventQueueEntry entry, Statechart statechart) {
+    enqueue(entry, statechart);
+    schedule();
+  }
+
+  //============================================================================
+
+  /**
+   * Adds an entry without scheduling the mailbox. It is dispatched with the
+   * next posted entry or after calling schedule.
+   */
+  void enqueue(EventQueueEntry entry, Statechart statechart) {
+    this.statechart = statechart;
+    queue.offer(entry);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of waiting entries.
+   */
+  int size() {
+    return queue.size();
+  }
+
+  //============================================================================
+
+  /**
+   * Takes the time the running batch waited for the lock, so it is reported
+   * only once. The lock of the Metadata object must be held.
+   */
+  long takeLockWait() {
+    long wait = lockWait;
+    lockWait = 0;
+    return wait;
+  }
+
+  //============================================================================
+
+  /**
+   * Schedules the mailbox if entries are waiting and it is not scheduled
+   * already.
+   */
+  void schedule() {
+    if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+      try {
+        Executor executor = data.affinity;
+        if (executor != null) {
+          executor.execute(this);
+        } else {
+          statechart.runtime.execute(this);
+        }
+      } catch (RejectedExecutionException e) {
+        // Normally this means that the threadpool has been shutted down
+        statechart.rejectedEvents.incrementAndGet();
+        scheduled.set(false);
+      }
+    }
+  }
+
+  //============================================================================
+  // Inherited by Runnable
+  //============================================================================
+  /**
+   * Dispatches a batch of events in one run-to-completion step and schedules
+   * the mailbox again if more events are waiting.
+   */
+  public void run() {
+    process(Integer.MAX_VALUE);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches at most max events but not more than the batch size of the
+   * statechart.
+   *
+   * @return The number of dispatched events.
+   */
+  int process(int max) {
+    int count = 0;
+    try {
+      Statechart statechart = this.statechart;
+      max = Math.min(max, statechart.getMailboxBatchSize());
+      long wait = statechart.lockRequested(data);
+      synchronized (data) {
+        lockWait = statechart.lockAcquired(data, wait);
+        try {
+          while (count < max) {
+            EventQueueEntry entry = queue.poll();
+            if (entry == null) {
+              break;
+            }
+            entry.run();
+            count++;
+          }
+        } finally {
+          lockWait = 0;
+        }
+      }
+    } finally {
+      scheduled.set(false);
+      schedule();
+    }
+    return count;
+  }
+}
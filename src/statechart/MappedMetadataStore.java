@@ -0,0 +1,455 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Vector;
+
+/**
+ * Keeps the runtime data of dormant Metadata objects off the heap in a memory
+ * mapped file. Every slot holds a fixed-size record with the active states as
+ * bitset, the current substate of every active context, the stored histories
+ * and the deadlines of the armed timeouts. A stored Metadata object is reset
+ * and can be dropped, it is loaded back into a live object when the next
+ * event for its slot arrives.
+ * <p>
+ * The timeouts of a dormant instance do not fire while it is stored. They are
+ * armed again on loading, the timeouts expired in the meantime are dispatched
+ * by the loading thread before load returns.
+ */
+public class MappedMetadataStore {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final int MAGIC = 0x53434d53;
+  private static final int HEADER_SIZE = 16;
+  private static final int REGION_SIZE = 1 << 30;
+  private static final int TIMEOUT_SIZE = 10;
+
+  private Statechart statechart = null;
+  private State[] states = null;
+  private int recordSize = 0;
+  private int capacity = 0;
+  private int recordsPerRegion = 0;
+
+  // the offset of the data of a state within a record, -1 if it has none
+  private int[] offsets = null;
+
+  // the maximum number of states stored by a history pseudostate
+  private int[] historySizes = null;
+
+  private RandomAccessFile file = null;
+  private MappedByteBuffer[] regions = null;
+  private Object[] locks = new Object[64];
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Opens the store. An existing file is reused if it was created for a
+   * statechart with the same structure.
+   *
+   * @param path The file backing the store.
+   * @param statechart The statechart of the stored Metadata objects.
+   * @param capacity The number of slots.
+   * @throws StatechartException If the existing file belongs to a different
+   *           statechart.
+   */
+  public MappedMetadataStore(File path, Statechart statechart, int capacity)
+      throws IOException, StatechartException {
+    this.statechart = statechart;
+    this.states = statechart.ordinals;
+    this.capacity = capacity;
+    if (states.length >= 0xffff) {
+      throw new StatechartException("Statechart <" + statechart.name + "> has too many states");
+    }
+
+    // the layout of a record: used flag, active states, per state data
+    offsets = new int[states.length];
+    historySizes = new int[states.length];
+    int size = 1 + (states.length + 7) / 8;
+    for (int i = 0; i < states.length; i++) {
+      State state = states[i];
+      offsets[i] = -1;
+      if (state instanceof Context || MetadataCodec.isHistory(state) || state.timeoutCount > 0) {
+        offsets[i] = size;
+      }
+      if (state instanceof Context) {
+        size += 2;
+      }
+      if (MetadataCodec.isHistory(state)) {
+        historySizes[i] = countSubstates(state.context);
+        size += 2 + 2 * historySizes[i];
+      }
+      size += state.timeoutCount * TIMEOUT_SIZE;
+    }
+    recordSize = size;
+    recordsPerRegion = REGION_SIZE / recordSize;
+
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+
+    file = new RandomAccessFile(path, "rw");
+    try {
+      if (file.length() >= HEADER_SIZE) {
+        if (file.readInt() != MAGIC || file.readInt() != states.length
+            || file.readInt() != recordSize) {
+          throw new StatechartException("Store does not match statechart <" + statechart.name + ">");
+        }
+      } else {
+        file.writeInt(MAGIC);
+        file.writeInt(states.length);
+        file.writeInt(recordSize);
+        file.writeInt(0);
+      }
+
+      FileChannel channel = file.getChannel();
+      regions = new MappedByteBuffer[(capacity + recordsPerRegion - 1) / recordsPerRegion];
+      for (int i = 0; i < regions.length; i++) {
+        long records = Math.min(recordsPerRegion, capacity - (long)i * recordsPerRegion);
+        regions[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+            HEADER_SIZE + (long)i * recordsPerRegion * recordSize, records * recordSize);
+      }
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    } catch (StatechartException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of slots.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the size of a record in bytes.
+   */
+  public int getRecordSize() {
+    return recordSize;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if a Metadata object is stored in the slot.
+   */
+  public boolean contains(int slot) {
+    synchronized (lock(slot)) {
+      return region(slot).get(base(slot)) != 0;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Stores the runtime data in the slot and resets the Metadata object. No
+   * actions are executed, the armed timeouts are cancelled.
+   */
+  public void store(int slot, Metadata data) {
+    MappedByteBuffer region = region(slot);
+    int base = base(slot);
+    synchronized (lock(slot)) {
+      synchronized (data) {
+        for (int i = 0; i < recordSize; i++) {
+          region.put(base + i, (byte)0);
+        }
+        region.put(base, (byte)1);
+
+        for (int i = 0; i < states.length; i++) {
+          State state = states[i];
+          int offset = base + offsets[i];
+          if (MetadataCodec.isHistory(state)) {
+            StateRuntimedata d = data.getData(state);
+            if (d != null) {
+              int size = Math.min(d.stateset.size(), historySizes[i]);
+              region.putShort(offset, (short)(size + 1));
+              for (int j = 0; j < size; j++) {
+                region.putShort(offset + 2 + 2 * j, (short)d.stateset.get(j).ordinal);
+              }
+            }
+          }
+          if (!data.isActive(state)) {
+            continue;
+          }
+          region.put(base + 1 + i / 8, (byte)(region.get(base + 1 + i / 8) | (1 << (i % 8))));
+          if (state instanceof Context) {
+            State current = data.getData(state).currentState;
+            region.putShort(offset, (short)(current != null ? current.ordinal + 1 : 0));
+            offset += 2;
+          }
+          if (state.timeoutCount > 0) {
+            if (MetadataCodec.isHistory(state)) {
+              offset += 2 + 2 * historySizes[i];
+            }
+            Vector<EventQueueEntry> timeouts = data.getData(state).timeoutEvents;
+            int count = 0;
+            for (int j = 0; j < timeouts.size() && count < state.timeoutCount; j++) {
+              EventQueueEntry entry = timeouts.get(j);
+              if (entry.isPending()) {
+                region.putShort(offset, (short)(MetadataCodec.indexOf(state, entry.getEvent()) + 1));
+                region.putLong(offset + 2, entry.getAbsoluteTimeout());
+                offset += TIMEOUT_SIZE;
+                count++;
+              }
+            }
+          }
+        }
+        data.reset();
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Loads the runtime data of the slot into the Metadata object and frees the
+   * slot. The timeouts are armed again with the given parameter. The expired
+   * ones are dispatched in the order of their deadlines after the slot is
+   * unlocked, otherwise no actions are executed.
+   *
+   * @return false if the slot is empty.
+   * @throws StatechartException If the record is invalid.
+   */
+  public boolean load(int slot, Metadata data, Parameter parameter) throws StatechartException {
+    ArrayList<EventQueueEntry> expired = new ArrayList<EventQueueEntry>();
+    if (!read(slot, data, parameter, expired)) {
+      return false;
+    }
+    synchronized (data) {
+      runExpired(expired);
+    }
+    return true;
+  }
+
+  //============================================================================
+
+  /**
+   * Reads the runtime data of the slot into the Metadata object, frees the
+   * slot and collects the expired timeouts sorted by their deadlines.
+   */
+  private boolean read(int slot, Metadata data, Parameter parameter,
+      ArrayList<EventQueueEntry> expired) throws StatechartException {
+    MappedByteBuffer region = region(slot);
+    int base = base(slot);
+    synchronized (lock(slot)) {
+      if (region.get(base) == 0) {
+        return false;
+      }
+      synchronized (data) {
+        boolean[] active = new boolean[states.length];
+        data.reset();
+        // the parents have lower ordinals than their substates
+        for (int i = 0; i < states.length; i++) {
+          active[i] = (region.get(base + 1 + i / 8) & (1 << (i % 8))) != 0;
+          if (active[i] && states[i].context != null && !active[states[i].context.ordinal]) {
+            throw new StatechartException("Record contains a state without its context");
+          }
+          if (active[i]) {
+            data.activate(states[i]);
+          }
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < states.length; i++) {
+          State state = states[i];
+          int offset = base + offsets[i];
+          if (MetadataCodec.isHistory(state)) {
+            int size = region.getShort(offset) - 1;
+            if (size >= 0) {
+              StateRuntimedata d = data.createRuntimedata(state);
+              for (int j = 0; j < size; j++) {
+                d.stateset.add(state(region.getShort(offset + 2 + 2 * j) & 0xffff));
+              }
+            }
+          }
+          if (!active[i]) {
+            continue;
+          }
+          if (state instanceof Context) {
+            int current = region.getShort(offset) & 0xffff;
+            data.getData(state).currentState = current == 0 ? null : state(current - 1);
+            offset += 2;
+          }
+          if (state.timeoutCount > 0) {
+            if (MetadataCodec.isHistory(state)) {
+              offset += 2 + 2 * historySizes[i];
+            }
+            for (int j = 0; j < state.timeoutCount; j++, offset += TIMEOUT_SIZE) {
+              int index = region.getShort(offset) - 1;
+              if (index < 0) {
+                break;
+              }
+              if (index >= state.getTransitionArray().length
+                  || !(state.getTransitionArray()[index].event instanceof TimeoutEvent)) {
+                throw new StatechartException("Record contains an invalid timeout");
+              }
+              long delay = region.getLong(offset + 2) - now;
+              TimeoutEvent event = (TimeoutEvent)state.getTransitionArray()[index].event;
+              if (delay > 0) {
+                state.armTimeout(data, parameter, event, delay);
+              } else {
+                expired.add(new EventQueueEntry(statechart, state, data, event, parameter, delay));
+              }
+            }
+          }
+        }
+
+        Collections.sort(expired);
+      }
+      region.put(base, (byte)0);
+      return true;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the expired timeouts. The caller holds the lock of their
+   * Metadata object.
+   */
+  private static void runExpired(ArrayList<EventQueueEntry> expired) {
+    // an entry is skipped if an earlier timeout left its state
+    for (int i = 0; i < expired.size(); i++) {
+      expired.get(i).run();
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Loads the runtime data of the slot, dispatches the event and stores the
+   * runtime data again. The slot stays locked meanwhile, so the expired
+   * timeouts are dispatched under its lock as well.
+   *
+   * @return false if the slot is empty or the event was not handled.
+   * @throws StatechartException If the record is invalid.
+   */
+  public boolean dispatch(int slot, Event event, Parameter parameter) throws StatechartException {
+    synchronized (lock(slot)) {
+      Metadata data = new Metadata();
+      ArrayList<EventQueueEntry> expired = new ArrayList<EventQueueEntry>();
+      if (!read(slot, data, parameter, expired)) {
+        return false;
+      }
+      synchronized (data) {
+        runExpired(expired);
+      }
+      boolean handled = statechart.dispatch(data, event, parameter);
+      store(slot, data);
+      return handled;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Frees the slot.
+   */
+  public void remove(int slot) {
+    synchronized (lock(slot)) {
+      region(slot).put(base(slot), (byte)0);
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Writes the modified records to the disk.
+   */
+  public void force() {
+    for (int i = 0; i < regions.length; i++) {
+      regions[i].force();
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Closes the file. The mapped records are written by the operating system.
+   */
+  public void close() throws IOException {
+    file.close();
+  }
+
+  //============================================================================
+
+  private MappedByteBuffer region(int slot) {
+    if (slot < 0 || slot >= capacity) {
+      throw new IndexOutOfBoundsException("Slot " + slot + " is out of range");
+    }
+    return regions[slot / recordsPerRegion];
+  }
+
+  //============================================================================
+
+  private int base(int slot) {
+    return (slot % recordsPerRegion) * recordSize;
+  }
+
+  //============================================================================
+
+  private Object lock(int slot) {
+    return locks[slot & (locks.length - 1)];
+  }
+
+  //============================================================================
+
+  private State state(int ordinal) throws StatechartException {
+    State state = statechart.getStateByOrdinal(ordinal);
+    if (state == null) {
+      throw new StatechartException("Record contains an invalid state");
+    }
+    return state;
+  }
+
+  //============================================================================
+
+  /**
+   * Counts the states below the context.
+   */
+  private int countSubstates(Context context) {
+    int count = 0;
+    for (int i = 0; i < states.length; i++) {
+      for (Context c = states[i].context; c != null; c = c.context) {
+        if (c == context) {
+          count++;
+          break;
+        }
+      }
+    }
+    return count;
+  }
+}
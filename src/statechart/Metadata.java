@@ -19,8 +19,8 @@
  */
 package statechart;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * Describes runtime specific data of the statechart. The main data is the
@@ -28,13 +28,42 @@ import java.util.Map;
  * every active state a StateMetadata-Object is created which stores runtime
  * specifiv data for the state (e.g. the time since entering the state). This
  * object is allocated only when the state is active, otherwise it is deleted.
+ *
+ * The objects are stored in an array indexed by the ordinal of the state. A
+ * Metadata object is bound to the statechart of the first state activated
+ * after creation or reset.
+ *
+ * If recycling is enabled, the StateRuntimedata of a deactivated state is
+ * kept and reused on the next activation. Together with the dispatch methods
+ * without parameter, dispatching in a chart without timeouts does not
+ * allocate any objects once every state was active at least once. A cancelled
+ * timeout entry is only reused after the timer service dropped it, until then
+ * arming the timeout again allocates a new entry. The price is the memory for
+ * the data of inactive states.
  */
 public class Metadata {
   //============================================================================
   // ATTRIBUTES
   //============================================================================
-  /** Keymap which holds the StateRuntimedata of a state */
-  private Map<State, StateRuntimedata> activeStates = new HashMap<State, StateRuntimedata>();
+  /** The StateRuntimedata of the states indexed by their ordinal */
+  private StateRuntimedata[] activeStates = new StateRuntimedata[0];
+
+  /** The statechart the ordinals belong to */
+  private Statechart statechart = null;
+
+  /** Keep the StateRuntimedata of inactive states for reuse */
+  private final boolean recycle;
+
+  /** The queue of asynchronous events, created on the first use */
+  private volatile Mailbox mailbox = null;
+  private static final AtomicReferenceFieldUpdater<Metadata, Mailbox> mailboxUpdater =
+    AtomicReferenceFieldUpdater.newUpdater(Metadata.class, Mailbox.class, "mailbox");
+
+  /** The executor running the mailbox instead of the one of the runtime */
+  volatile Executor affinity = null;
+
+  /** The recorder of the last transitions or NULL */
+  FlightRecorder recorder = null;
   
   //============================================================================
   // METHODS
@@ -43,6 +72,47 @@ public class Metadata {
    * Creates a Metadata object.
    */
   public Metadata() {
+    this(false);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a Metadata object.
+   *
+   * @param recycle Keep the StateRuntimedata of deactivated states for reuse.
+   */
+  public Metadata(boolean recycle) {
+    this.recycle = recycle;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the StateRuntimedata of deactivated states is reused.
+   */
+  public boolean isRecycling() {
+    return recycle;
+  }
+
+  //============================================================================
+
+  /**
+   * Attaches a recorder keeping the last transitions of this object.
+   *
+   * @param recorder The recorder or NULL to stop recording.
+   */
+  public synchronized void setFlightRecorder(FlightRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the attached recorder or NULL.
+   */
+  public synchronized FlightRecorder getFlightRecorder() {
+    return recorder;
   }
 
   //============================================================================
@@ -51,10 +121,8 @@ public class Metadata {
    * Checks wether the given state is active or not.
    */
   public boolean isActive(State state) {
-    if (activeStates.containsKey(state)) {
-      return getData(state).active;
-    }
-    return false;
+    StateRuntimedata data = getData(state);
+    return data != null ? data.active : false;
   }
 
   //============================================================================
@@ -65,21 +133,21 @@ public class Metadata {
    * @return The data or NULL if the state is not active
    */
   public StateRuntimedata getData(State state) {
-    return activeStates.get(state);
+    int ordinal = state.ordinal;
+    if (state.statechart != statechart || ordinal >= activeStates.length) {
+      return null;
+    }
+    return activeStates[ordinal];
   }
 
   //============================================================================
 
   /**
-   * Activates a state for this Metadata. If the state is not in the Hashmap it
-   * will be added and a new StateRuntimeData is created.
+   * Activates a state for this Metadata. If the state has no runtime data yet,
+   * a new StateRuntimeData is created.
    */
   void activate(State state) {
-    StateRuntimedata data = getData(state);
-    if (data == null) {
-      data = new StateRuntimedata();
-      activeStates.put(state, data);
-    }
+    StateRuntimedata data = createRuntimedata(state);
 
     data.active = true;
     data.currentTime = System.currentTimeMillis();
@@ -87,7 +155,7 @@ public class Metadata {
 
     // update the context. if context is null we are at top level
     if (state.context != null) {
-      data = activeStates.get(state.context);
+      data = getData(state.context);
       data.currentState = state;
     }
   }
@@ -98,9 +166,8 @@ public class Metadata {
    * Deactivates the state and frees the allocated resources.
    */
   void deactivate(State state) {
-    if (activeStates.containsKey(state)) {
-      StateRuntimedata data = getData(state);
-
+    StateRuntimedata data = getData(state);
+    if (data != null) {
       // If we store the history of a hierarchical state, keep it
       if (state instanceof PseudoState 
           && (((PseudoState)state).type == PseudoState.pseudostate_deep_history
@@ -111,8 +178,12 @@ public class Metadata {
             
       data.timeoutEvents.clear();
       data.currentState = null;
-      data = null;
-      activeStates.remove(state);
+      if (recycle) {
+        data.active = false;
+        data.stateset.clear();
+      } else {
+        activeStates[state.ordinal] = null;
+      }
     }
   }
 
@@ -120,14 +191,15 @@ public class Metadata {
 
   /**
    * Gets the runtime data for a state. The difference to the normal getData
-   * method is, that a new StateRuntimedata is created if it don't exists in the
-   * hashmap. If the data already exists, it is returned instead.
+   * method is, that a new StateRuntimedata is created if it don't exists yet.
+   * If the data already exists, it is returned instead.
    */
   StateRuntimedata createRuntimedata(State s) {
-    StateRuntimedata data = activeStates.get(s);
+    bind(s);
+    StateRuntimedata data = activeStates[s.ordinal];
     if (data == null) {
       data = new StateRuntimedata();
-      activeStates.put(s, data);
+      activeStates[s.ordinal] = data;
     }
     return data;
   }
@@ -138,6 +210,88 @@ public class Metadata {
    * Resets the metadata object for reuse 
    */
   public void reset() {
-    activeStates.clear();
+    for (int i = 0; i < activeStates.length; i++) {
+      if (activeStates[i] != null) {
+        clear(activeStates[i]);
+        if (!recycle) {
+          activeStates[i] = null;
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Cancels the armed timeouts of all active states without changing the
+   * configuration. The lock of the object must be held.
+   */
+  void cancelTimeouts(Statechart statechart) {
+    State[] states = statechart.ordinals;
+    for (int i = 0; i < states.length; i++) {
+      StateRuntimedata data = isActive(states[i]) ? getData(states[i]) : null;
+      if (data != null) {
+        for (int j = 0; j < data.timeoutEvents.size(); j++) {
+          data.timeoutEvents.get(j).cancel();
+        }
+        data.timeoutEvents.clear();
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Resets a StateRuntimedata object. Timeouts still in the queue are marked
+   * as invalid, otherwise they could fire after a restart.
+   */
+  static void clear(StateRuntimedata data) {
+    for (int i = 0; i < data.timeoutEvents.size(); i++) {
+      data.timeoutEvents.get(i).cancel();
+    }
+    data.timeoutEvents.clear();
+    data.stateset.clear();
+    data.currentState = null;
+    data.active = false;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the mailbox for asynchronous events and creates it if necessary.
+   */
+  Mailbox getMailbox() {
+    Mailbox box = mailbox;
+    if (box == null) {
+      mailboxUpdater.compareAndSet(this, null, new Mailbox(this));
+      box = mailbox;
+    }
+    return box;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the mailbox for asynchronous events, NULL if none has been created.
+   */
+  Mailbox peekMailbox() {
+    return mailbox;
+  }
+
+  //============================================================================
+
+  /**
+   * Makes sure the array can hold the data of the given state. If the state
+   * belongs to another statechart, all data is dropped.
+   */
+  private void bind(State state) {
+    if (state.statechart != statechart) {
+      statechart = state.statechart;
+      activeStates = new StateRuntimedata[statechart.getStateCount()];
+    } else if (state.ordinal >= activeStates.length) {
+      StateRuntimedata[] grown = new StateRuntimedata[statechart.getStateCount()];
+      System.arraycopy(activeStates, 0, grown, 0, activeStates.length);
+      activeStates = grown;
+    }
   }
 }
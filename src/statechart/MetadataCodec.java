@@ -0,0 +1,348 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes the complete runtime data of a Metadata object into a compact
+ * binary snapshot and restores it. A snapshot contains
+ * <ul>
+ * <li>the active states as a bitset indexed by the state ordinals,</li>
+ * <li>the current substate of every active composite state,</li>
+ * <li>the stored states of every history pseudostate and</li>
+ * <li>the remaining delay of every armed timeout.</li>
+ * </ul>
+ * All numbers are written as variable length integers, so a snapshot takes
+ * only a few bytes per active state. It can only be restored for the same
+ * statechart, or one built in the same order.
+ */
+public final class MetadataCodec {
+  /**
+   * A growable byte array with variable length integers.
+   */
+  static final class Output {
+    byte[] buffer = new byte[32];
+    int length = 0;
+
+    void write(int b) {
+      if (length == buffer.length) {
+        byte[] grown = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        buffer = grown;
+      }
+      buffer[length++] = (byte)b;
+    }
+
+    void write(byte[] bytes, int offset, int count) {
+      if (length + count > buffer.length) {
+        byte[] grown = new byte[Math.max(buffer.length * 2, length + count)];
+        System.arraycopy(buffer, 0, grown, 0, length);
+        buffer = grown;
+      }
+      System.arraycopy(bytes, offset, buffer, length, count);
+      length += count;
+    }
+
+    void writeInt(int value) {
+      write(value >>> 24);
+      write(value >>> 16);
+      write(value >>> 8);
+      write(value);
+    }
+
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int)((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      write((int)value);
+    }
+
+    byte[] toByteArray() {
+      byte[] result = new byte[length];
+      System.arraycopy(buffer, 0, result, 0, length);
+      return result;
+    }
+  }
+
+  /**
+   * Reads from a byte array written by Output.
+   */
+  static final class Input {
+    final byte[] buffer;
+    int position = 0;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    int read() throws StatechartException {
+      if (position >= buffer.length) {
+        throw new StatechartException("Snapshot is truncated");
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    long readVarLong() throws StatechartException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = read();
+        value |= (long)(b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new StatechartException("Snapshot contains an invalid number");
+    }
+
+    int readVarInt() throws StatechartException {
+      return (int)readVarLong();
+    }
+
+    int readInt() throws StatechartException {
+      return (read() << 24) | (read() << 16) | (read() << 8) | read();
+    }
+
+    byte[] read(int count) throws StatechartException {
+      if (count < 0 || position + count > buffer.length) {
+        throw new StatechartException("Snapshot is truncated");
+      }
+      byte[] result = new byte[count];
+      System.arraycopy(buffer, position, result, 0, count);
+      position += count;
+      return result;
+    }
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final int VERSION = 1;
+  private Statechart statechart = null;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a codec for the Metadata objects of the given statechart.
+   */
+  public MetadataCodec(Statechart statechart) {
+    this.statechart = statechart;
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a snapshot of the runtime data.
+   */
+  public byte[] encode(Metadata data) {
+    Output out = new Output();
+    synchronized (data) {
+      encode(data, out);
+    }
+    return out.toByteArray();
+  }
+
+  //============================================================================
+
+  /**
+   * Restores the runtime data from a snapshot. The previous data of the
+   * Metadata object is dropped. No actions are executed. The armed timeouts
+   * are armed again with their remaining delay and the given parameter.
+   *
+   * @throws StatechartException If the snapshot is invalid or belongs to a
+   *           different statechart.
+   */
+  public void decode(byte[] snapshot, Metadata data, Parameter parameter) throws StatechartException {
+    decode(snapshot, data, parameter, 0);
+  }
+
+  //============================================================================
+
+  /**
+   * Restores the runtime data from a snapshot taken the given time ago. The
+   * remaining delays of the armed timeouts are shortened by that time.
+   *
+   * @param elapsed The time in milliseconds since the snapshot was taken.
+   * @throws StatechartException If the snapshot is invalid or belongs to a
+   *           different statechart.
+   */
+  public void decode(byte[] snapshot, Metadata data, Parameter parameter, long elapsed)
+      throws StatechartException {
+    synchronized (data) {
+      decode(new Input(snapshot), data, parameter, elapsed);
+    }
+  }
+
+  //============================================================================
+
+  void encode(Metadata data, Output out) {
+    State[] states = statechart.ordinals;
+    out.write(VERSION);
+    out.writeVarLong(states.length);
+
+    // the active configuration
+    for (int i = 0; i < states.length; i += 8) {
+      int bits = 0;
+      for (int j = 0; j < 8 && i + j < states.length; j++) {
+        if (data.isActive(states[i + j])) {
+          bits |= 1 << j;
+        }
+      }
+      out.write(bits);
+    }
+
+    for (int i = 0; i < states.length; i++) {
+      State state = states[i];
+      if (isHistory(state)) {
+        // the stored history, kept while the pseudostate is inactive. A
+        // history is only stored if the pseudostate was active once.
+        StateRuntimedata d = data.getData(state);
+        if (d == null) {
+          out.writeVarLong(0);
+        } else {
+          out.writeVarLong(d.stateset.size() + 1);
+          for (int j = 0; j < d.stateset.size(); j++) {
+            out.writeVarLong(d.stateset.get(j).ordinal);
+          }
+        }
+      }
+      if (!data.isActive(state)) {
+        continue;
+      }
+      if (state instanceof Context) {
+        State current = data.getData(state).currentState;
+        out.writeVarLong(current != null ? current.ordinal + 1 : 0);
+      }
+      if (state.timeoutCount > 0) {
+        Vector<EventQueueEntry> timeouts = data.getData(state).timeoutEvents;
+        int count = 0;
+        for (int j = 0; j < timeouts.size(); j++) {
+          if (timeouts.get(j).isPending()) {
+            count++;
+          }
+        }
+        out.writeVarLong(count);
+        for (int j = 0; j < timeouts.size(); j++) {
+          EventQueueEntry entry = timeouts.get(j);
+          if (entry.isPending()) {
+            out.writeVarLong(indexOf(state, entry.getEvent()));
+            out.writeVarLong(entry.getDelay(TimeUnit.MILLISECONDS));
+          }
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  void decode(Input in, Metadata data, Parameter parameter, long elapsed)
+      throws StatechartException {
+    State[] states = statechart.ordinals;
+    if (in.read() != VERSION) {
+      throw new StatechartException("Unknown snapshot version");
+    }
+    if (in.readVarLong() != states.length) {
+      throw new StatechartException("Snapshot does not match statechart <" + statechart.name + ">");
+    }
+
+    boolean[] active = new boolean[states.length];
+    for (int i = 0; i < states.length; i += 8) {
+      int bits = in.read();
+      for (int j = 0; j < 8 && i + j < states.length; j++) {
+        active[i + j] = (bits & (1 << j)) != 0;
+      }
+    }
+
+    // the parents have lower ordinals than their substates
+    data.reset();
+    for (int i = 0; i < states.length; i++) {
+      if (active[i] && states[i].context != null && !active[states[i].context.ordinal]) {
+        throw new StatechartException("Snapshot contains a state without its context");
+      }
+      if (active[i]) {
+        data.activate(states[i]);
+      }
+    }
+
+    for (int i = 0; i < states.length; i++) {
+      State state = states[i];
+      if (isHistory(state)) {
+        int size = in.readVarInt() - 1;
+        if (size >= 0) {
+          StateRuntimedata d = data.createRuntimedata(state);
+          for (int j = 0; j < size; j++) {
+            d.stateset.add(state(in.readVarInt()));
+          }
+        }
+      }
+      if (!active[i]) {
+        continue;
+      }
+      if (state instanceof Context) {
+        int current = in.readVarInt();
+        data.getData(state).currentState = current == 0 ? null : state(current - 1);
+      }
+      if (state.timeoutCount > 0) {
+        int count = in.readVarInt();
+        for (int j = 0; j < count; j++) {
+          int index = in.readVarInt();
+          long delay = Math.max(0, in.readVarLong() - elapsed);
+          if (index >= state.getTransitionArray().length
+              || !(state.getTransitionArray()[index].event instanceof TimeoutEvent)) {
+            throw new StatechartException("Snapshot contains an invalid timeout");
+          }
+          state.armTimeout(data, parameter, (TimeoutEvent)state.getTransitionArray()[index].event, delay);
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  private State state(int ordinal) throws StatechartException {
+    State state = statechart.getStateByOrdinal(ordinal);
+    if (state == null) {
+      throw new StatechartException("Snapshot contains an invalid state");
+    }
+    return state;
+  }
+
+  //============================================================================
+
+  static boolean isHistory(State state) {
+    return state instanceof PseudoState
+      && (((PseudoState)state).type == PseudoState.pseudostate_history
+          || ((PseudoState)state).type == PseudoState.pseudostate_deep_history);
+  }
+
+  //============================================================================
+
+  static int indexOf(State state, Event event) {
+    for (int i = 0; i < state.getTransitionArray().length; i++) {
+      if (state.getTransitionArray()[i].event == event) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -24,6 +24,12 @@ package statechart;
  * the current time of the active state. This value is set by every state itself.
  */
 public class Parameter {
+  /**
+   * Shared parameter used if the caller does not give one. Avoids allocating
+   * a parameter for every dispatch.
+   */
+  static final Parameter EMPTY = new Parameter();
+
   /**
    * Creates a parameter
    */
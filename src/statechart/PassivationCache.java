@@ -0,0 +1,428 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps up to a maximum number of Metadata objects in memory. If the cache is
+ * full, the least recently used object is passivated: its snapshot is saved
+ * to the store and its runtime data is dropped. The next access to the key
+ * loads the snapshot again, so the callers do not see the eviction.
+ * <p>
+ * The armed timeouts of a passivated object are part of the snapshot. The
+ * object is loaded again when its first timeout expires, and the timeouts are
+ * armed again with their remaining delay. The time passivated is subtracted
+ * from the delays.
+ * <p>
+ * The store is accessed without holding the lock of the cache. While the
+ * object of a key is loaded or saved, other callers for the same key wait,
+ * callers for other keys do not.
+ * <p>
+ * Actions must not access the cache, the Metadata object of the running
+ * action could be passivated at the same time.
+ */
+public class PassivationCache<K> {
+  /**
+   * A cached Metadata object. Once it is passivated it must not be used
+   * anymore, the key has to be looked up again.
+   */
+  static class Entry {
+    final Metadata data;
+    boolean passivated = false;
+
+    Entry(Metadata data) {
+      this.data = data;
+    }
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private Statechart statechart = null;
+  private MetadataStore<K> store = null;
+  private MetadataFactory<K> factory = null;
+  private MetadataCodec codec = null;
+  private int capacity = 0;
+  private Parameter timeoutParameter = null;
+
+  // guarded by this
+  private LinkedHashMap<K, Entry> entries = new LinkedHashMap<K, Entry>(16, 0.75f, true);
+  private HashMap<K, ScheduledFuture<?>> wakeups = new HashMap<K, ScheduledFuture<?>>();
+  // the keys being loaded from or saved to the store
+  private HashSet<K> transfers = new HashSet<K>();
+  private ScheduledThreadPoolExecutor scheduler = null;
+  private long passivations = 0;
+  private long activations = 0;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a cache with plain Metadata objects.
+   */
+  public PassivationCache(Statechart statechart, MetadataStore<K> store, int capacity) {
+    this(statechart, store, capacity, null, null);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a cache.
+   *
+   * @param statechart The statechart of all objects.
+   * @param store Keeps the snapshots of the passivated objects.
+   * @param capacity The maximum number of objects in memory.
+   * @param factory Creates the Metadata objects. If NULL plain Metadata
+   *          objects are created.
+   * @param timeoutParameter The parameter of the timeouts armed again when a
+   *          passivated object is loaded because of an expired timeout.
+   */
+  public PassivationCache(Statechart statechart, MetadataStore<K> store, int capacity,
+      MetadataFactory<K> factory, Parameter timeoutParameter) {
+    this.statechart = statechart;
+    this.store = store;
+    this.capacity = Math.max(1, capacity);
+    this.factory = factory;
+    this.timeoutParameter = timeoutParameter;
+    this.codec = new MetadataCodec(statechart);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a new Metadata object for the key and starts the statechart.
+   * An earlier object of the key is dropped.
+   */
+  public boolean start(K key, Parameter parameter) throws IOException {
+    Metadata data = factory != null ? factory.createMetadata(key) : new Metadata();
+    boolean started = statechart.start(data, parameter);
+    synchronized (this) {
+      awaitTransfer(key);
+      cancelWakeup(key);
+      Entry old = entries.put(key, new Entry(data));
+      if (old != null) {
+        synchronized (old.data) {
+          old.passivated = true;
+          old.data.reset();
+        }
+      }
+    }
+    evict(capacity);
+    return started;
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event to the Metadata object of the key. A passivated
+   * object is loaded first.
+   *
+   * @return false if the key is unknown or the event was not handled.
+   * @throws StatechartException If the saved snapshot is invalid.
+   */
+  public boolean dispatch(K key, Event event, Parameter parameter)
+      throws IOException, StatechartException {
+    while (true) {
+      Entry entry = lookup(key, parameter);
+      if (entry == null) {
+        return false;
+      }
+      synchronized (entry.data) {
+        if (!entry.passivated) {
+          return statechart.dispatch(entry.data, event, parameter);
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the Metadata object of the key and loads it if it is passivated. The
+   * object may be passivated again by later calls, so it should only be used
+   * for reading.
+   *
+   * @param parameter The parameter for the timeouts armed again on loading.
+   * @return The Metadata object or NULL if the key is unknown.
+   * @throws StatechartException If the saved snapshot is invalid.
+   */
+  public Metadata get(K key, Parameter parameter) throws IOException, StatechartException {
+    Entry entry = lookup(key, parameter);
+    return entry != null ? entry.data : null;
+  }
+
+  //============================================================================
+
+  /**
+   * Removes the key from the cache and the store. The timeouts of its
+   * Metadata object are cancelled.
+   */
+  public void remove(K key) throws IOException {
+    Entry entry;
+    synchronized (this) {
+      awaitTransfer(key);
+      cancelWakeup(key);
+      entry = entries.remove(key);
+    }
+    if (entry != null) {
+      synchronized (entry.data) {
+        entry.passivated = true;
+        entry.data.reset();
+      }
+    }
+    store.delete(key);
+  }
+
+  //============================================================================
+
+  /**
+   * Passivates all objects in memory, e.g. before a shutdown.
+   */
+  public void flush() throws IOException {
+    evict(0);
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of objects in memory.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of passivated objects so far.
+   */
+  public synchronized long getPassivationCount() {
+    return passivations;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of objects loaded from the store so far.
+   */
+  public synchronized long getActivationCount() {
+    return activations;
+  }
+
+  //============================================================================
+
+  /**
+   * Stops the thread loading passivated objects with expired timeouts.
+   */
+  public synchronized void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the entry of the key, loading it from the store if necessary.
+   */
+  private Entry lookup(K key, Parameter parameter) throws IOException, StatechartException {
+    synchronized (this) {
+      awaitTransfer(key);
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        return entry;
+      }
+      transfers.add(key);
+    }
+
+    Entry entry = null;
+    try {
+      byte[] saved = store.load(key);
+      if (saved != null) {
+        Metadata data = factory != null ? factory.createMetadata(key) : new Metadata();
+        MetadataCodec.Input in = new MetadataCodec.Input(saved);
+        long elapsed = System.currentTimeMillis() - in.readVarLong();
+        codec.decode(in, data, parameter, Math.max(0, elapsed));
+        entry = new Entry(data);
+      }
+    } finally {
+      synchronized (this) {
+        transfers.remove(key);
+        if (entry != null) {
+          cancelWakeup(key);
+          entries.put(key, entry);
+          activations++;
+        }
+        notifyAll();
+      }
+    }
+    if (entry != null) {
+      evict(capacity);
+    }
+    return entry;
+  }
+
+  //============================================================================
+
+  /**
+   * Waits while the object of the key is loaded or saved by another thread.
+   * Must be called while holding the lock of the cache.
+   */
+  private void awaitTransfer(K key) throws InterruptedIOException {
+    while (transfers.contains(key)) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the store");
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Passivates the least recently used objects above the given number.
+   */
+  private void evict(int limit) throws IOException {
+    while (true) {
+      K key;
+      Entry entry;
+      synchronized (this) {
+        Iterator<Map.Entry<K, Entry>> i = entries.entrySet().iterator();
+        if (entries.size() <= limit || !i.hasNext()) {
+          return;
+        }
+        Map.Entry<K, Entry> e = i.next();
+        i.remove();
+        key = e.getKey();
+        entry = e.getValue();
+        transfers.add(key);
+      }
+      passivate(key, entry);
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Saves the snapshot of the entry and drops its runtime data. A wakeup is
+   * scheduled for the first armed timeout. The key has been moved from the
+   * entries to the transfers by the caller. If saving fails, the entry is put
+   * back unchanged.
+   */
+  private void passivate(final K key, Entry entry) throws IOException {
+    long timeout = Long.MAX_VALUE;
+    boolean saved = false;
+    try {
+      // dispatches to the entry wait until it is saved and then look it up
+      // again
+      synchronized (entry.data) {
+        // the snapshot is saved with the time of the passivation
+        MetadataCodec.Output out = new MetadataCodec.Output();
+        out.writeVarLong(System.currentTimeMillis());
+        codec.encode(entry.data, out);
+        timeout = getFirstTimeout(entry.data);
+        store.save(key, out.toByteArray());
+        saved = true;
+        entry.passivated = true;
+        entry.data.reset();
+      }
+    } finally {
+      synchronized (this) {
+        transfers.remove(key);
+        if (saved) {
+          passivations++;
+          scheduleWakeup(key, timeout);
+        } else {
+          entries.put(key, entry);
+        }
+        notifyAll();
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Loads the object of the key again at the given point in time. Must be
+   * called while holding the lock of the cache.
+   */
+  private void scheduleWakeup(final K key, long timeout) {
+    if (timeout != Long.MAX_VALUE) {
+      if (scheduler == null) {
+        scheduler = new ScheduledThreadPoolExecutor(1,
+            new Statechart.StatechartThreadFactory("passivation", true));
+        scheduler.setRemoveOnCancelPolicy(true);
+      }
+      long delay = Math.max(0, timeout - System.currentTimeMillis());
+      wakeups.put(key, scheduler.schedule(new Runnable() {
+        public void run() {
+          try {
+            lookup(key, timeoutParameter);
+          } catch (Exception e) {
+            // the timeout is armed again by the next access
+          }
+        }
+      }, delay, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  //============================================================================
+
+  private void cancelWakeup(K key) {
+    ScheduledFuture<?> wakeup = wakeups.remove(key);
+    if (wakeup != null) {
+      wakeup.cancel(false);
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the point in time of the first armed timeout.
+   */
+  private long getFirstTimeout(Metadata data) {
+    long first = Long.MAX_VALUE;
+    State[] states = statechart.ordinals;
+    for (int i = 0; i < states.length; i++) {
+      if (states[i].timeoutCount > 0 && data.isActive(states[i])) {
+        StateRuntimedata d = data.getData(states[i]);
+        for (int j = 0; j < d.timeoutEvents.size(); j++) {
+          EventQueueEntry e = d.timeoutEvents.get(j);
+          if (e.isPending()) {
+            first = Math.min(first, e.getAbsoluteTimeout());
+          }
+        }
+      }
+    }
+    return first;
+  }
+}
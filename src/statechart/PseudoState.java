@@ -40,7 +40,7 @@ public class PseudoState extends State {
   int type;
 
   /** Incoming transitions (needed for join) */
-  Vector<Transition> incoming = null;
+  Transition[] incoming = new Transition[0];
   
   //============================================================================
   // METHODS
@@ -83,6 +83,16 @@ public class PseudoState extends State {
 
   //============================================================================
 
+  /**
+   * History states need a StateRuntimedata object to store the history.
+   */
+  boolean needsRuntimedata() {
+    return type == pseudostate_history || type == pseudostate_deep_history
+        || super.needsRuntimedata();
+  }
+
+  //============================================================================
+
   /**
    * Does a lookup if this pseudo state can be activated. This is true when
    * there exists a path to the next real state.
@@ -90,19 +100,25 @@ public class PseudoState extends State {
   boolean lookup(Metadata data, Parameter parameter) {
     // check if all incoming transitions can trigger
     if(type == pseudostate_join) {
-      for(int i = 0; i < incoming.size(); i++) {
-        Transition t = incoming.get(i);
-        StateRuntimedata d = data.getData(t.deactivate.get(0));
-        if(d == null || d != null && !d.active || t.hasGuard() 
-           && !t.guard.check(data, parameter) ) {
+      for(int i = 0; i < incoming.length; i++) {
+        Transition t = incoming[i];
+        if(!data.isActive(t.deactivate[0])) {
+          return false;
+        }
+        if(t.hasGuard() && !t.guard.check(data, parameter)) {
+          StatechartListener listener = statechart.listener;
+          if(listener != null) {
+            listener.guardRejected(data, t);
+          }
           return false;
         }
       }
     }
 
     // check if an outgoing transition can trigger
-    for(int i = 0; i < transitions.size(); i++) {
-      if(transitions.get(i).allowed(data, parameter)) {
+    Transition[] list = getTransitionArray();
+    for(int i = 0; i < list.length; i++) {
+      if(list[i].allowed(data, parameter)) {
         return true;
       }
     }
@@ -118,9 +134,13 @@ public class PseudoState extends State {
   boolean activate(Metadata data, Parameter parameter) {
     data.activate(this);
     StateRuntimedata d = data.getData(this);
+    StatechartListener listener = statechart.listener;
+    if(listener != null) {
+      listener.stateEntered(data, this);
+    }
 
     if(entryAction != null) {
-      entryAction.execute(data, parameter);
+      statechart.execute(this, StatechartListener.ENTRY_ACTION, entryAction, data, parameter);
     }
 
     if(type == pseudostate_history || type == pseudostate_deep_history) {
@@ -129,20 +149,24 @@ public class PseudoState extends State {
       }
     } else if(type == pseudostate_fork) {
       // Exclude regions from automatic activation through the and-state
-      for(int j = 0; j < transitions.size(); j++) {
-        Transition t = transitions.get(j);
+      Transition[] list = getTransitionArray();
+      for(int j = 0; j < list.length; j++) {
+        Transition t = list[j];
         // Activate the region at it's start state if the guard fails.
         if(t.guard != null && !t.guard.check(data, parameter)) {
+          if(listener != null) {
+            listener.guardRejected(data, t);
+          }
           continue;
         }
 
-        for(int i = 0; i < t.activate.size(); i++) {
-          if(i + 1 < t.activate.size() && t.activate.get(i) instanceof ConcurrentState) {
-            ConcurrentState s = (ConcurrentState)t.activate.get(i);
+        for(int i = 0; i < t.activate.length; i++) {
+          if(i + 1 < t.activate.length && t.activate[i] instanceof ConcurrentState) {
+            ConcurrentState s = (ConcurrentState)t.activate[i];
             StateRuntimedata cd = data.createRuntimedata(s);
 
-            if (!cd.stateset.contains(t.activate.get(i + 1))) {
-              cd.stateset.add(t.activate.get(i + 1));
+            if (!cd.stateset.contains(t.activate[i + 1])) {
+              cd.stateset.add(t.activate[i + 1]);
             }
           }
         }
@@ -184,8 +208,9 @@ public class PseudoState extends State {
       }
     } else if (type == pseudostate_fork) {
       // enter the state and execute the transitions
-      for (int i = 0; i < transitions.size(); i++) {
-        Transition t = transitions.get(i);
+      Transition[] list = getTransitionArray();
+      for (int i = 0; i < list.length; i++) {
+        Transition t = list[i];
         t.execute(event, data, parameter);
       }
       return true;
@@ -200,10 +225,10 @@ public class PseudoState extends State {
    * constructor.
    */
   void addIncomingTransition(Transition t) {
-    if (incoming == null) {
-      incoming = new Vector<Transition>();
-    }
-    incoming.add(t);
+    Transition[] list = new Transition[incoming.length + 1];
+    System.arraycopy(incoming, 0, list, 0, incoming.length);
+    list[incoming.length] = t;
+    incoming = list;
   }
 
   //============================================================================
@@ -19,6 +19,7 @@
  */
 package statechart;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 /**
@@ -26,6 +27,37 @@ import java.util.Vector;
  * state can have a name assigned for identification.
  */
 public class State {
+  /**
+   * The transitions of a state grouped by the event code. Immutable, a new
+   * index is built after a transition has been added.
+   */
+  private static final class EventIndex {
+    // all transitions in the order they are checked
+    final Transition[] all;
+
+    // the event codes of the transitions in ascending order
+    final int[] codes;
+
+    // the candidate transitions of every code in codes
+    final Transition[][] candidates;
+
+    // Transitions which must be checked for every event: transitions without
+    // an event and transitions whose event overrides Event.equals().
+    final Transition[] generic;
+
+    // Transitions without an event. Only these can fire without an event.
+    final Transition[] completion;
+
+    EventIndex(Transition[] all, int[] codes, Transition[][] candidates, Transition[] generic,
+        Transition[] completion) {
+      this.all = all;
+      this.codes = codes;
+      this.candidates = candidates;
+      this.generic = generic;
+      this.completion = completion;
+    }
+  }
+
   //============================================================================
   // ATTRIBUTES
   //============================================================================
@@ -38,9 +70,18 @@ public class State {
   // The exit action to execute.
   protected Action exitAction = null;
 
-  // List of the associated transition objects.
+  // List of the associated transition objects, transitions with a guard
+  // first. Changed only by addTransition, dispatches read the array copy in
+  // the event index instead of the synchronized Vector.
   protected Vector<Transition> transitions = new Vector<Transition>();
 
+  // Number of transitions triggered by a timeout event.
+  int timeoutCount = 0;
+
+  // The candidate transitions by event code. Built on the first dispatch or
+  // by Statechart.freeze and dropped by addTransition.
+  private volatile EventIndex eventIndex = null;
+
   // The context of this state.
   Context context = null;
   
@@ -49,6 +90,9 @@ public class State {
 
   // The name of the state (for easier debugging).
   protected String name = null;
+
+  // The position of the state in the statechart. Used as index by Metadata.
+  int ordinal = 0;
   
   //============================================================================
   // METHODS
@@ -74,10 +118,14 @@ public class State {
       }
       if(parent instanceof Statechart) {
         this.statechart = (Statechart)parent;
+        if(this.statechart.frozen) {
+          throw new StatechartException("Statechart is frozen, cannot add state <" + name + ">");
+        }
         if(this.statechart.states.containsKey(name)) {
           throw new StatechartException("State name <" + name + "> already used! Please define a unique name.");
         }
         this.statechart.states.put(name, this);
+        this.ordinal = this.statechart.register(this);
       } else {
         throw new StatechartException("Cannot determine path to the statechart. Check the hierarchy.");
       }
@@ -100,6 +148,17 @@ public class State {
 
   //============================================================================
 
+  /**
+   * Gets the position of this state in the statechart. The statechart itself
+   * has the ordinal 0, all other states are numbered in the order they were
+   * created.
+   */
+  public int getOrdinal() {
+    return ordinal;
+  }
+
+  //============================================================================
+
   /**
    * Sets the entry action. If there is already an action given,
    * it will be destroyed first.
@@ -158,6 +217,122 @@ public class State {
     } else {
       transitions.add(transition);
     }
+    if(transition.event instanceof TimeoutEvent) {
+      timeoutCount++;
+    }
+    eventIndex = null;
+    if(statechart != null) {
+      statechart.recordSlots = null;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the event index and builds it if necessary. Each list in the index
+   * keeps the order of the transitions list, so guarded transitions are still
+   * checked first. The index holds only the codes used by the transitions of
+   * this state and is searched binary.
+   */
+  private EventIndex getEventIndex() {
+    EventIndex index = eventIndex;
+    if(index != null) {
+      return index;
+    }
+    Transition[] all = transitions.toArray(new Transition[0]);
+    Vector<Transition> generic = new Vector<Transition>();
+    Vector<Transition> completion = new Vector<Transition>();
+
+    // get the distinct event codes which can be looked up directly
+    int[] codes = new int[all.length];
+    int size = 0;
+    for(int i = 0; i < all.length; i++) {
+      Transition t = all[i];
+      if(t.event != null && t.event.comparesById()) {
+        codes[size++] = t.event.code;
+      } else {
+        generic.add(t);
+        if(t.event == null) {
+          completion.add(t);
+        }
+      }
+    }
+    Arrays.sort(codes, 0, size);
+    int count = 0;
+    for(int i = 0; i < size; i++) {
+      if(count == 0 || codes[count - 1] != codes[i]) {
+        codes[count++] = codes[i];
+      }
+    }
+    codes = Arrays.copyOf(codes, count);
+
+    // generic transitions are candidates for every event
+    Transition[][] candidates = new Transition[count][];
+    for(int c = 0; c < count; c++) {
+      Vector<Transition> list = new Vector<Transition>();
+      for(int i = 0; i < all.length; i++) {
+        Transition t = all[i];
+        if(t.event == null || !t.event.comparesById() || t.event.code == codes[c]) {
+          list.add(t);
+        }
+      }
+      candidates[c] = list.toArray(new Transition[list.size()]);
+    }
+    index = new EventIndex(all, codes, candidates, generic.toArray(new Transition[generic.size()]),
+                           completion.toArray(new Transition[completion.size()]));
+    eventIndex = index;
+    return index;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the transitions of this state in the order they are checked. The
+   * array must not be changed.
+   */
+  final Transition[] getTransitionArray() {
+    return getEventIndex().all;
+  }
+
+  //============================================================================
+
+  /**
+   * Builds the event index, so later dispatches only read it.
+   */
+  void indexTransitions() {
+    getEventIndex();
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the transitions which may fire for the given event in the order they
+   * must be checked. Transitions with an event that can never match are not
+   * part of the result.
+   */
+  Transition[] getCandidates(Event event) {
+    EventIndex index = getEventIndex();
+    if(event == null) {
+      return index.completion;
+    }
+    int code = event.getDispatchCode();
+    if(code >= 0) {
+      int i = Arrays.binarySearch(index.codes, code);
+      if(i >= 0) {
+        return index.candidates[i];
+      }
+    }
+    return index.generic;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the state needs a StateRuntimedata object while it is active.
+   * This is true if a timeout event is armed on activation.
+   */
+  boolean needsRuntimedata() {
+    return timeoutCount > 0;
   }
 
   //============================================================================
@@ -168,27 +343,27 @@ public class State {
   boolean activate(Metadata data, Parameter parameter) {
     if(!data.isActive(this)) {
       data.activate(this);
+      StatechartListener listener = statechart.listener;
+      if(listener != null) {
+        listener.stateEntered(data, this);
+      }
       
       // trigger the timout events if available
-      for(int i = 0; i < transitions.size(); i++)  {
-        Transition t = transitions.get(i);
+      Transition[] list = getTransitionArray();
+      for(int i = 0; i < list.length && timeoutCount > 0; i++)  {
+        Transition t = list[i];
         if(t.event != null && t.event instanceof TimeoutEvent) {
-          TimeoutEvent event = (TimeoutEvent)t.event;          
-          EventQueueEntry entry = new EventQueueEntry(statechart, 
-                                                      this, data, event, parameter,
-                                                      ((TimeoutEvent)event).getTimout());
-          StateRuntimedata runtimedata = data.getData(this);
-          runtimedata.timeoutEvents.add(entry);
-          statechart.timeoutEventQueue.add(entry);
+          TimeoutEvent event = (TimeoutEvent)t.event;
+          armTimeout(data, parameter, event, event.getTimout());
         }
       }
       
       if(entryAction != null) {
-        entryAction.execute(data, parameter);
+        statechart.execute(this, StatechartListener.ENTRY_ACTION, entryAction, data, parameter);
       }
 
       if(doAction != null) {
-        doAction.execute(data, parameter);
+        statechart.execute(this, StatechartListener.DO_ACTION, doAction, data, parameter);
       }
       return true;
     }
@@ -197,29 +372,46 @@ public class State {
 
   //============================================================================
 
+  /**
+   * Arms the timeout event of an outgoing transition of this active state.
+   */
+  void armTimeout(Metadata data, Parameter parameter, TimeoutEvent event, long delay) {
+    StateRuntimedata runtimedata = data.getData(this);
+
+    // reuse an entry of an earlier activation if it is not queued anymore
+    EventQueueEntry entry = runtimedata.getIdleTimeout(event);
+    if(entry != null) {
+      entry.init(data, parameter, delay);
+    } else {
+      entry = new EventQueueEntry(statechart, this, data, event, parameter, delay);
+      runtimedata.cacheTimeout(entry, 2 * timeoutCount);
+    }
+    runtimedata.timeoutEvents.add(entry);
+    statechart.runtime.schedule(entry);
+  }
+
+  //============================================================================
+
   /**
    * Deactivates the state.
    */
   void deactivate(Metadata data, Parameter parameter) {
     if(data.isActive(this)) {
-      // Mark events as invalid
-      Vector<EventQueueEntry> timeoutEvents = data.getData(this).timeoutEvents;
-      if(timeoutEvents != null) {
-        for (EventQueueEntry event : timeoutEvents) {
-          event.invalid = true;
-          /*
-           * @FIXME
-           * @See Java-Bug ID: 6268068. Proposed fix is to use:
-           * removeAll(Collections.singletonList(event)).  
-           *
-           * Problem: Leads to ConcurrentModificationException. Final fix is in JDK6
-           */
-          statechart.timeoutEventQueue.remove(event);
+      // Cancel the timeout events, they are removed lazily by the timer
+      StateRuntimedata runtimedata = data.getData(this);
+      if(runtimedata != null) {
+        Vector<EventQueueEntry> timeoutEvents = runtimedata.timeoutEvents;
+        for (int i = 0; i < timeoutEvents.size(); i++) {
+          timeoutEvents.get(i).cancel();
         }
       }
+      StatechartListener listener = statechart.listener;
+      if(listener != null) {
+        listener.stateExited(data, this);
+      }
       data.deactivate(this);
       if(exitAction != null) {
-        exitAction.execute(data, parameter);
+        statechart.execute(this, StatechartListener.EXIT_ACTION, exitAction, data, parameter);
       }      
     }
   }
@@ -230,8 +422,9 @@ public class State {
    * Dispatches the given event.
    */
   boolean dispatch(Metadata data, Event event, Parameter parameter) {
-    for(int i = 0; i < transitions.size(); i++)  {
-      if(transitions.get(i).execute(event, data, parameter)) {
+    Transition[] candidates = getCandidates(event);
+    for(int i = 0; i < candidates.length; i++)  {
+      if(candidates[i].execute(event, data, parameter)) {
         return true;
       }
     }
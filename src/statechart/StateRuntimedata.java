@@ -53,10 +53,50 @@ public class StateRuntimedata {
    */
   public Vector<EventQueueEntry> timeoutEvents = new Vector<EventQueueEntry>();
 
+  /**
+   * Timeout entries of earlier activations which can be reused
+   */
+  private EventQueueEntry[] timeoutCache = null;
+  private int nextCacheSlot = 0;
+
   //============================================================================
   // Methods
-  //============================================================================
-	@Override
+  //============================================================================
+  /**
+   * Gets a cached entry for the timeout event which is neither in the timeout
+   * queue nor executed by a thread.
+   *
+   * @return The entry or NULL if there is no such entry
+   */
+  EventQueueEntry getIdleTimeout(TimeoutEvent event) {
+    if(timeoutCache != null) {
+      for(int i = 0; i < timeoutCache.length; i++) {
+        EventQueueEntry entry = timeoutCache[i];
+        if(entry != null && entry.isIdle(event)) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  //============================================================================
+
+  /**
+   * Adds a timeout entry to the cache. If the cache is full, the oldest entry
+   * is replaced.
+   */
+  void cacheTimeout(EventQueueEntry entry, int size) {
+    if(timeoutCache == null) {
+      timeoutCache = new EventQueueEntry[size];
+    }
+    timeoutCache[nextCacheSlot] = entry;
+    nextCacheSlot = (nextCacheSlot + 1) % timeoutCache.length;
+  }
+
+  //============================================================================
+
+	@Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
     builder.append("StateRuntimedata [active=");
@@ -19,14 +19,18 @@
  */
 package statechart;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
 
 /**
  * The main entry point for using the statechart framework. Contains all
@@ -39,7 +43,7 @@ public class Statechart extends Context implements Runnable {
    * Creates the threads for the ThreadPoolExecutor. These threads may be daemon
    * or non-daemon threads.
    */
-  class StatechartThreadFactory implements ThreadFactory {
+  static class StatechartThreadFactory implements ThreadFactory {
     //============================================================================
     // ATTRIBUTES
     //============================================================================
@@ -75,9 +79,33 @@ public class Statechart extends Context implements Runnable {
   // ATTRIBUTES
   //============================================================================
   public static final String VERSION = "1.1.0";
-  private ExecutorService threadpool = null;
-  DelayQueue<EventQueueEntry> timeoutEventQueue = new DelayQueue<EventQueueEntry>();
+  StatechartRuntime runtime = null;
+  private boolean ownsRuntime = false;
+  TimerService timer = null;
+  private volatile int mailboxBatchSize = 32;
   HashMap<String, State> states = new HashMap<String, State>();
+  State[] ordinals = new State[0];
+  volatile int[] recordSlots = null;
+  boolean frozen = false;
+
+  // the registered listeners or NULL. Volatile, so a listener added while
+  // the statechart runs is seen by the next dispatch; an unused listener costs
+  // a volatile read on every step. Read it once into a local variable.
+  volatile StatechartListener listener = null;
+
+  // the statistics published by the StatechartMXBean
+  final AtomicLong asyncEvents = new AtomicLong();
+  final AtomicLong rejectedEvents = new AtomicLong();
+  final AtomicLong firedTimeouts = new AtomicLong();
+  final AtomicLong timeoutLagSum = new AtomicLong();
+  final AtomicLong timeoutLagMax = new AtomicLong();
+  private ObjectName mbeanName = null;
+
+  // distinguishes the MBeans of statecharts with the same name
+  private static final AtomicInteger mbeanIds = new AtomicInteger();
+
+  // the journal recording the fired timeouts or NULL
+  volatile Journal journal = null;
 
   //============================================================================
   // METHODS
@@ -95,33 +123,219 @@ public class Statechart extends Context implements Runnable {
    * @throws StatechartException
    */
   public Statechart(String name, int threads, boolean makeDaemonThreads) throws StatechartException {
+    this(name, new StatechartRuntime(name, threads, makeDaemonThreads), true);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates the Statechart with the given default and maximum number of
+   * threads and the timer service handling the timeouts.
+   *
+   * @param name The name of the statechart. This must be unique for all
+   *          statecharts in the running JVM.
+   * @param threads The maximum number of threads available in the
+   *          threadpool.
+   * @param makeDaemonThreads Specifies if the created threads should be daemon
+   *          or non-daemon threads.
+   * @param timer The timer service, e.g. a TimingWheelTimerService for a large
+   *          number of armed timeouts.
+   * @throws StatechartException
+   */
+  public Statechart(String name, int threads, boolean makeDaemonThreads, TimerService timer)
+      throws StatechartException {
+    this(name, new StatechartRuntime(name, threads, makeDaemonThreads, timer), true);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates the Statechart using the given executor for asynchronous and
+   * timeout events, e.g. the one created by newVirtualThreadExecutor. The
+   * executor is shut down together with the statechart.
+   *
+   * @param name The name of the statechart. This must be unique for all
+   *          statecharts in the running JVM.
+   * @param executor The executor running the mailboxes and the timer. Its
+   *          timer thread is blocked permanently, so a fixed pool needs at
+   *          least two threads.
+   * @param timer The timer service handling the timeouts.
+   * @throws StatechartException
+   */
+  public Statechart(String name, ExecutorService executor, TimerService timer)
+      throws StatechartException {
+    this(name, new StatechartRuntime(executor, timer), true);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates the Statechart using a runtime shared with other statecharts.
+   * Shutting down the statechart does not shut down the runtime.
+   *
+   * @param name The name of the statechart. This must be unique for all
+   *          statecharts in the running JVM.
+   * @param runtime The runtime providing the executor and the timer service.
+   * @throws StatechartException
+   */
+  public Statechart(String name, StatechartRuntime runtime) throws StatechartException {
+    this(name, runtime, false);
+  }
+
+  //============================================================================
+
+  private Statechart(String name, StatechartRuntime runtime, boolean ownsRuntime)
+      throws StatechartException {
     super(name, null, null, null, null);
-    // we need at least two threads for asynchronous and timeout events
-    if(threads < 2) {
-      threads = 2;
+    statechart = this;
+    register(this);
+    this.runtime = runtime;
+    this.ownsRuntime = ownsRuntime;
+    timer = runtime.getTimerService();
+  }
+
+  //============================================================================
+
+  /**
+   * Creates an executor starting a new virtual thread for every task. With it
+   * the number of Metadata objects making progress at the same time is not
+   * limited by a pool size, and actions may block e.g. on I/O without
+   * starving other statecharts. Note that events are dispatched while holding
+   * the lock of the Metadata object, so a blocking action pins the carrier
+   * thread of its virtual thread on JVMs before Java 24.
+   *
+   * @throws StatechartException If the JVM does not support virtual threads
+   *           (Java 21 or newer is required).
+   */
+  public static ExecutorService newVirtualThreadExecutor() throws StatechartException {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)factory.invoke(null);
+    } catch (Exception e) {
+      throw new StatechartException("Virtual threads are not supported by this JVM: " + e);
     }
-    threadpool = Executors.newFixedThreadPool(threads, new StatechartThreadFactory(name, makeDaemonThreads));
-    threadpool.execute(this);
   }
 
   //============================================================================
 
   /**
    * Shutdown of the threadpool. The pool waits 60 seconds at most before
-   * shutting down hard.
-   *
-   * @throws InterruptedException
+   * shutting down hard. A shared runtime is not shut down.
    */
   public synchronized void shutdown() {
-    threadpool.shutdown();
-    timeoutEventQueue.clear();
-    // send an empty event to the queue to get back from the delay queues take method
-    timeoutEventQueue.add(new EventQueueEntry(this, this, null, null, null, 0));
-    try {
-      threadpool.awaitTermination(60, TimeUnit.SECONDS);
-    } catch (InterruptedException e) {
-      // ignore and just exit the method
+    if (ownsRuntime) {
+      runtime.shutdown();
+    }
+    unregisterMBean();
+  }
+
+  //============================================================================
+
+  /**
+   * Registers a StatechartMXBean for this statechart at the platform MBean
+   * server. The name is statechart:type=Statechart,name="name",id=n where n
+   * is unique within the JVM, so statecharts with the same name get an MBean
+   * each. Calling it again returns the registered name. The MBean is
+   * unregistered by unregisterMBean or shutdown, until then it keeps the
+   * statechart reachable. A runtime created by the statechart registers its
+   * StatechartRuntimeMXBean together with it, a shared runtime is registered
+   * with StatechartRuntime.registerMBean.
+   *
+   * @return The name of the MBean.
+   * @throws StatechartException If the MBean could not be registered.
+   */
+  public synchronized ObjectName registerMBean() throws StatechartException {
+    if (mbeanName == null) {
+      try {
+        ObjectName objectName = new ObjectName("statechart:type=Statechart,name="
+            + ObjectName.quote(name) + ",id=" + mbeanIds.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StatechartMonitor(this),
+            objectName);
+        mbeanName = objectName;
+        if (ownsRuntime) {
+          runtime.registerMBean();
+        }
+      } catch (Exception e) {
+        throw new StatechartException("Cannot register the MBean of " + name + ": " + e);
+      }
+    }
+    return mbeanName;
+  }
+
+  //============================================================================
+
+  /**
+   * Unregisters the StatechartMXBean registered by registerMBean, if any.
+   */
+  public synchronized void unregisterMBean() {
+    if (ownsRuntime) {
+      runtime.unregisterMBean();
+    }
+    if (mbeanName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      } catch (Exception e) {
+        // already unregistered
+      }
+      mbeanName = null;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Validates the statechart and prevents further changes of the structure.
+   * Creating new states or transitions for a frozen statechart fails. Builds
+   * the transition arrays and event indices of all states, so dispatches only
+   * read immutable arrays. Should be called after the statechart is built and
+   * before it is used.
+   *
+   * @throws StatechartException If the statechart is not valid. The message
+   *           contains all problems found.
+   */
+  public synchronized void freeze() throws StatechartException {
+    if(frozen) {
+      return;
+    }
+    StringBuilder problems = new StringBuilder();
+    if(startState == null) {
+      problems.append(" Statechart has no start state.");
     }
+    for(int i = 0; i < ordinals.length; i++) {
+      State s = ordinals[i];
+      if(s instanceof ConcurrentState && ((ConcurrentState)s).getRegionCount() < 2) {
+        problems.append(" Concurrent state <" + s + "> needs at least two regions.");
+      }
+      if(s instanceof PseudoState) {
+        PseudoState p = (PseudoState)s;
+        if(p.transitions.isEmpty()) {
+          problems.append(" Pseudostate <" + s + "> has no outgoing transition.");
+        }
+        if(p.type == PseudoState.pseudostate_join && p.incoming.length == 0) {
+          problems.append(" Join <" + s + "> has no incoming transition.");
+        }
+      }
+      if(s instanceof FinalState && !s.transitions.isEmpty()) {
+        problems.append(" Final state <" + s + "> has outgoing transitions.");
+      }
+    }
+    if(problems.length() > 0) {
+      throw new StatechartException("Invalid statechart <" + name + ">:" + problems);
+    }
+    for(int i = 0; i < ordinals.length; i++) {
+      ordinals[i].indexTransitions();
+    }
+    getRecordSlots();
+    frozen = true;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the statechart is frozen.
+   */
+  public boolean isFrozen() {
+    return frozen;
   }
 
   //============================================================================
@@ -130,8 +344,7 @@ public class Statechart extends Context implements Runnable {
    * Initializes the Statechart in the runtime data. Sets the start state.
    */
   public boolean start(Metadata data) {
-    Parameter parameter = new Parameter();
-    return start(data, parameter);
+    return start(data, Parameter.EMPTY);
   }
 
   //============================================================================
@@ -178,8 +391,7 @@ public class Statechart extends Context implements Runnable {
    * Calls the dispatch method on the current state.
    */
   public boolean dispatch(Metadata data, Event event) {
-    Parameter parameter = new Parameter();
-    return dispatch(data, event, parameter);
+    return dispatch(data, event, Parameter.EMPTY);
   }
 
   //============================================================================
@@ -189,17 +401,248 @@ public class Statechart extends Context implements Runnable {
    * the incoming event to the current state.
    */
   public boolean dispatch(Metadata data, Event event, Parameter parameter) {
-    boolean rc = false;
+    if (listener == null) {
+      synchronized (data) {
+        return dispatchLocked(data, event, parameter);
+      }
+    }
+    long wait = lockRequested(data);
+    synchronized (data) {
+      return dispatchTimed(data, event, parameter, lockAcquired(data, wait));
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the events one after another while holding the lock of the
+   * Metadata object only once. Every event runs to completion before the next
+   * one is dispatched.
+   *
+   * @return The indices of the events which were handled.
+   */
+  public BitSet dispatchBatch(Metadata data, Event[] events) {
+    return dispatchBatch(data, events, Parameter.EMPTY);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the events one after another while holding the lock of the
+   * Metadata object only once. Every event runs to completion before the next
+   * one is dispatched.
+   *
+   * @return The indices of the events which were handled.
+   */
+  public BitSet dispatchBatch(Metadata data, Event[] events, Parameter parameter) {
+    BitSet handled = new BitSet(events.length);
+    long wait = lockRequested(data);
+    synchronized (data) {
+      wait = lockAcquired(data, wait);
+      for (int i = 0; i < events.length; i++) {
+        if (dispatchTimed(data, events[i], parameter, wait)) {
+          handled.set(i);
+        }
+        wait = 0;
+      }
+    }
+    return handled;
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the events one after another while holding the lock of the
+   * Metadata object only once. Every event runs to completion before the next
+   * one is dispatched.
+   *
+   * @return The indices of the events which were handled.
+   */
+  public BitSet dispatchBatch(Metadata data, List<? extends Event> events) {
+    return dispatchBatch(data, events, Parameter.EMPTY);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the events one after another while holding the lock of the
+   * Metadata object only once. Every event runs to completion before the next
+   * one is dispatched.
+   *
+   * @return The indices of the events which were handled.
+   */
+  public BitSet dispatchBatch(Metadata data, List<? extends Event> events, Parameter parameter) {
+    BitSet handled = new BitSet(events.size());
+    long wait = lockRequested(data);
     synchronized (data) {
+      wait = lockAcquired(data, wait);
+      int i = 0;
+      for (Event event : events) {
+        if (dispatchTimed(data, event, parameter, wait)) {
+          handled.set(i);
+        }
+        wait = 0;
+        i++;
+      }
+    }
+    return handled;
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event to all Metadata objects in parallel.
+   *
+   * @see #broadcast(List, Event, Parameter, int)
+   */
+  public BroadcastResult broadcast(List<? extends Metadata> population, Event event) {
+    return broadcast(population, event, Parameter.EMPTY, 1024);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event to all Metadata objects in parallel.
+   *
+   * @see #broadcast(List, Event, Parameter, int)
+   */
+  public BroadcastResult broadcast(List<? extends Metadata> population, Event event,
+      Parameter parameter) {
+    return broadcast(population, event, parameter, 1024);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event to all Metadata objects in parallel. The list is
+   * split into partitions of consecutive objects which are dispatched by the
+   * fork/join pool of the runtime. A manual runtime dispatches in the calling
+   * thread. The method returns after the event was dispatched to all objects.
+   *
+   * @param population The Metadata objects. The list is accessed by index, so
+   *          it should implement RandomAccess, and must not be changed during
+   *          the broadcast.
+   * @param event The event to dispatch.
+   * @param parameter The parameter passed to all dispatches. It is used by
+   *          several threads at the same time.
+   * @param partitionSize The number of Metadata objects dispatched by one
+   *          task.
+   * @return The number of objects which handled the event, the exceptions
+   *         thrown by the dispatches to single objects and the time needed
+   *         for every partition. A failed dispatch does not stop the others.
+   */
+  public BroadcastResult broadcast(List<? extends Metadata> population, Event event,
+      Parameter parameter, int partitionSize) {
+    if (partitionSize < 1) {
+      throw new IllegalArgumentException("The partition size must be positive");
+    }
+    Broadcast broadcast = new Broadcast(this, population, event, parameter, partitionSize);
+    return broadcast.execute(runtime.getBroadcastPool());
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event and all following completion transitions. The lock
+   * of the Metadata object must be held.
+   */
+  private boolean dispatchLocked(Metadata data, Event event, Parameter parameter) {
+    try {
       State currentState = data.getData(this).currentState;
-      rc = currentState.dispatch(data, event, parameter);
+      boolean rc = currentState.dispatch(data, event, parameter);
+      StatechartListener listener = this.listener;
+      if (!rc && event != null && listener != null) {
+        listener.eventUnhandled(data, event);
+      }
 
       // call dispatch as long as we hit states with end transitions
       do {
         currentState = data.getData(this).currentState;
       } while (currentState != null && currentState.dispatch(data, null, parameter));
+      return rc;
+    } catch (RuntimeException e) {
+      attachTrace(data, e);
+      throw e;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches the event and reports the dispatch time to the listener. Only
+   * the first event of a batch waited for the lock.
+   */
+  private boolean dispatchTimed(Metadata data, Event event, Parameter parameter, long wait) {
+    StatechartListener listener = this.listener;
+    if (listener == null) {
+      return dispatchLocked(data, event, parameter);
+    }
+    listener.dispatchStarted(data, event);
+    long begin = System.nanoTime();
+    boolean rc = false;
+    try {
+      rc = dispatchLocked(data, event, parameter);
+      return rc;
+    } finally {
+      listener.eventDispatched(data, event, rc, wait, System.nanoTime() - begin);
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Reports to the listener that the lock of the Metadata object is about to
+   * be taken.
+   *
+   * @return The start of the wait, 0 without a listener.
+   */
+  final long lockRequested(Metadata data) {
+    StatechartListener listener = this.listener;
+    if (listener == null) {
+      return 0;
+    }
+    listener.lockRequested(data);
+    return System.nanoTime();
+  }
+
+  //============================================================================
+
+  /**
+   * Reports to the listener that the lock of the Metadata object is held. A
+   * dispatch nested in the batch of a mailbox adds the wait of the mailbox,
+   * which is taken by its first event.
+   *
+   * @param begin The value returned by lockRequested.
+   * @return The time in nanoseconds spent waiting for the lock.
+   */
+  final long lockAcquired(Metadata data, long begin) {
+    StatechartListener listener = this.listener;
+    if (listener == null || begin == 0) {
+      return 0;
     }
-    return rc;
+    long wait = System.nanoTime() - begin;
+    listener.lockAcquired(data, wait);
+    Mailbox mailbox = data.peekMailbox();
+    return mailbox != null ? wait + mailbox.takeLockWait() : wait;
+  }
+
+  //============================================================================
+
+  /**
+   * Attaches the steps of the flight recorder of the Metadata object to the
+   * exception, unless a nested dispatch did so already.
+   */
+  private void attachTrace(Metadata data, RuntimeException e) {
+    FlightRecorder recorder = data.recorder;
+    if (recorder == null) {
+      return;
+    }
+    for (Throwable t : e.getSuppressed()) {
+      if (t instanceof FlightRecorder.Trace) {
+        return;
+      }
+    }
+    e.addSuppressed(new FlightRecorder.Trace(recorder.dump(this)));
   }
 
   //============================================================================
@@ -209,8 +652,7 @@ public class Statechart extends Context implements Runnable {
    * triggers an initial asynchronous dispatch.
    */
   public void startAsynchron(Metadata data) {
-    Parameter parameter = new Parameter();
-    startAsynchron(data, parameter);
+    startAsynchron(data, Parameter.EMPTY);
   }
 
   //============================================================================
@@ -228,32 +670,65 @@ public class Statechart extends Context implements Runnable {
 
   //============================================================================
 
+  /**
+   * Initializes the Statechart in the runtime data like startAsynchron, but
+   * only adds the initial dispatch to the mailbox without scheduling it. Used
+   * to start a Metadata object before it is visible to other threads.
+   */
+  void queueStart(Metadata data, Parameter parameter) {
+    data.reset();
+    data.activate(this);
+    data.activate(startState);
+    asyncEvents.incrementAndGet();
+    data.getMailbox().enqueue(new EventQueueEntry(this, this, data, null, parameter, 0), this);
+  }
+
+  //============================================================================
+
   /**
    * Adds an event to the event queue.
    */
   public void dispatchAsynchron(Metadata data, Event event) {
-    Parameter parameter = new Parameter();
-    dispatchAsynchron(data, event, parameter);
+    dispatchAsynchron(data, event, Parameter.EMPTY);
   }
 
   //============================================================================
 
   /**
-   * Adds an event to the event queue.
+   * Adds an event to the mailbox of the Metadata object. The events of one
+   * Metadata object are dispatched in the order they were added.
    */
   public void dispatchAsynchron(Metadata data, Event event, Parameter parameter) {
-    if (!threadpool.isShutdown()) {
+    if (runtime.isShutdown()) {
+      rejectedEvents.incrementAndGet();
+    } else {
+      asyncEvents.incrementAndGet();
       if (event instanceof TimeoutEvent) {
-        timeoutEventQueue.add(new EventQueueEntry(this, this, data, event, parameter,
-                                                  ((TimeoutEvent)event).getTimout()));
+        runtime.schedule(new EventQueueEntry(this, this, data, event, parameter,
+                                             ((TimeoutEvent)event).getTimout()));
       } else {
-        threadpool.execute(new EventQueueEntry(this, this, data, event, parameter, 0));
+        data.getMailbox().post(new EventQueueEntry(this, this, data, event, parameter, 0), this);
       }
     }
   }
 
   //============================================================================
 
+  /**
+   * Adds an entry to the mailbox of its Metadata object like
+   * dispatchAsynchron.
+   */
+  void post(Metadata data, EventQueueEntry entry) {
+    if (runtime.isShutdown()) {
+      rejectedEvents.incrementAndGet();
+    } else {
+      asyncEvents.incrementAndGet();
+      data.getMailbox().post(entry, this);
+    }
+  }
+
+  //============================================================================
+
   /**
    * Since every state must have a unique name, it is possible to get the
    * state object by name.
@@ -262,23 +737,174 @@ public class Statechart extends Context implements Runnable {
     return states.get(string);
   }
 
+  //============================================================================
+
+  /**
+   * Gets the state with the given ordinal.
+   *
+   * @return The state or NULL if no state has this ordinal.
+   */
+  public final State getStateByOrdinal(int ordinal) {
+    return ordinal >= 0 && ordinal < ordinals.length ? ordinals[ordinal] : null;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of states including the statechart itself. All ordinals
+   * are lower than this value.
+   */
+  public final int getStateCount() {
+    return ordinals.length;
+  }
+
   //============================================================================
   // Inherited by Runnable
   //============================================================================
   /**
-   * Dequeues elements from the timeout queue and dispatches them
+   * Used to run the loop dispatching the timeouts, which is now done by the
+   * timer service. Starts the runtime and with it the timer service, or polls
+   * the expired timeouts once if the runtime is manual. Returns immediately.
+   *
+   * @deprecated The runtime starts the timer service on the first timeout.
    */
+  @Deprecated
   public void run() {
-    while (!threadpool.isShutdown()) {
-      try {
-        EventQueueEntry event = timeoutEventQueue.take();
-        threadpool.execute(event);
-      } catch (InterruptedException e) {
-        // ignore the exception. Just run the next loop and take method if
-        // necessary
-      } catch (RejectedExecutionException e) {
-        // Normally this means that the threadpool has been shutted down
+    if (runtime.isManual()) {
+      runtime.pollTimeouts();
+    } else {
+      runtime.startTimer();
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the timer service handling the timeouts of this statechart.
+   */
+  public final TimerService getTimerService() {
+    return timer;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the maximum number of asynchronous events dispatched for one
+   * Metadata object before its mailbox gives the thread back to the pool.
+   */
+  public final int getMailboxBatchSize() {
+    return mailboxBatchSize;
+  }
+
+  //============================================================================
+
+  /**
+   * Sets the maximum number of asynchronous events dispatched for one
+   * Metadata object before its mailbox gives the thread back to the pool.
+   * Larger batches save scheduling overhead, smaller ones are fairer to other
+   * Metadata objects. The default is 32.
+   */
+  public final void setMailboxBatchSize(int mailboxBatchSize) {
+    if (mailboxBatchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be positive");
+    }
+    this.mailboxBatchSize = mailboxBatchSize;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the runtime providing the executor and the timer service.
+   */
+  public final StatechartRuntime getRuntime() {
+    return runtime;
+  }
+
+  //============================================================================
+
+  /**
+   * Adds a listener receiving the steps of all dispatches. Dispatches
+   * already running may not see it.
+   */
+  public synchronized void addListener(StatechartListener listener) {
+    this.listener = CompositeListener.add(this.listener, listener);
+  }
+
+  //============================================================================
+
+  /**
+   * Removes a listener.
+   */
+  public synchronized void removeListener(StatechartListener listener) {
+    this.listener = CompositeListener.remove(this.listener, listener);
+  }
+
+  //============================================================================
+
+  /**
+   * Records the time between the expiry of a timeout and its dispatch.
+   */
+  void recordTimeoutLag(long lag) {
+    firedTimeouts.incrementAndGet();
+    timeoutLagSum.addAndGet(lag);
+    long max;
+    while (lag > (max = timeoutLagMax.get()) && !timeoutLagMax.compareAndSet(max, lag)) {
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Executes an action and reports its execution time to the listener.
+   *
+   * @param state The state owning the action, the source state for the action
+   *          of a transition.
+   * @param kind One of the StatechartListener.*_ACTION constants.
+   */
+  final void execute(State state, int kind, Action action, Metadata data, Parameter parameter) {
+    StatechartListener l = listener;
+    if (l == null) {
+      action.execute(data, parameter);
+    } else {
+      long start = System.nanoTime();
+      action.execute(data, parameter);
+      l.actionExecuted(data, state, kind, action, System.nanoTime() - start);
+    }
+  }
+
+
+  //============================================================================
+
+  /**
+   * Adds a state to the list of states and returns its ordinal.
+   */
+  int register(State state) {
+    State[] list = new State[ordinals.length + 1];
+    System.arraycopy(ordinals, 0, list, 0, ordinals.length);
+    list[ordinals.length] = state;
+    ordinals = list;
+    recordSlots = null;
+    return ordinals.length - 1;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the slot of the StateRuntimedata for every state indexed by the
+   * ordinal. The last entry holds the number of slots. States not needing
+   * a StateRuntimedata object have the slot -1.
+   */
+  int[] getRecordSlots() {
+    int[] slots = recordSlots;
+    if(slots == null) {
+      slots = new int[ordinals.length + 1];
+      int count = 0;
+      for(int i = 0; i < ordinals.length; i++) {
+        slots[i] = ordinals[i].needsRuntimedata() ? count++ : -1;
       }
+      slots[ordinals.length] = count;
+      recordSlots = slots;
     }
+    return slots;
   }
 }
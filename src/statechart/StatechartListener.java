@@ -0,0 +1,134 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * Receives the steps of the dispatches of a statechart, e.g. for logging,
+ * metrics or tracing. The methods except lockRequested are called by the
+ * dispatching thread while it holds the lock of the Metadata object, so they
+ * should return quickly.
+ * Extend StatechartListenerAdapter to implement only some of them.
+ *
+ * @see Statechart#addListener(StatechartListener)
+ */
+public interface StatechartListener {
+  /**
+   * The kinds of actions reported by actionExecuted.
+   */
+  public static final int ENTRY_ACTION = 0;
+  public static final int DO_ACTION = 1;
+  public static final int EXIT_ACTION = 2;
+  public static final int TRANSITION_ACTION = 3;
+
+  /**
+   * A state has been activated. Called before its entry action.
+   */
+  public void stateEntered(Metadata data, State state);
+
+  /**
+   * A state is deactivated. Called before its runtime data is dropped, so
+   * the time of its activation is still available, and before its exit
+   * action.
+   */
+  public void stateExited(Metadata data, State state);
+
+  /**
+   * The dispatching thread is about to wait for the lock of the Metadata
+   * object. Called before the lock is taken, followed by lockAcquired.
+   */
+  public void lockRequested(Metadata data);
+
+  /**
+   * The dispatching thread holds the lock of the Metadata object.
+   *
+   * @param waitNanos The time in nanoseconds spent waiting for the lock.
+   */
+  public void lockAcquired(Metadata data, long waitNanos);
+
+  /**
+   * The dispatch of an event starts. Followed by eventDispatched when the
+   * dispatch is completed.
+   *
+   * @param event The dispatched event, NULL for the initial dispatch.
+   */
+  public void dispatchStarted(Metadata data, Event event);
+
+  /**
+   * A transition fires. Called before the states are deactivated and followed
+   * by transitionExecuted.
+   *
+   * @param event The dispatched event, NULL for a completion transition.
+   */
+  public void transitionFired(Metadata data, Transition transition, Event event);
+
+  /**
+   * A transition has been executed, i.e. the states have been deactivated,
+   * the action has been executed and the target states have been activated.
+   * Also called if an action of the transition throws an exception.
+   *
+   * @param nanos The execution time in nanoseconds.
+   */
+  public void transitionExecuted(Metadata data, Transition transition, long nanos);
+
+  /**
+   * No transition of the active states handled the event.
+   */
+  public void eventUnhandled(Metadata data, Event event);
+
+  /**
+   * The guard of a transition returned false.
+   */
+  public void guardRejected(Metadata data, Transition transition);
+
+  /**
+   * An entry, do, exit or transition action has been executed. The same
+   * action object may be used by several states and transitions, so it is
+   * identified by its state and kind.
+   *
+   * @param state The state owning the action, the source state of the
+   *          transition for a transition action.
+   * @param kind ENTRY_ACTION, DO_ACTION, EXIT_ACTION or TRANSITION_ACTION.
+   * @param nanos The execution time in nanoseconds.
+   */
+  public void actionExecuted(Metadata data, State state, int kind, Action action, long nanos);
+
+  /**
+   * The dispatch of an event has been completed, including the completion
+   * transitions following it. Also called if the dispatch throws an
+   * exception, handled is false then.
+   *
+   * @param event The dispatched event, NULL for the initial dispatch.
+   * @param handled True if a transition handled the event.
+   * @param waitNanos The time in nanoseconds spent waiting for the lock of
+   *          the Metadata object. For the events of a mailbox the wait of the
+   *          batch is reported with its first event.
+   * @param nanos The dispatch time in nanoseconds.
+   */
+  public void eventDispatched(Metadata data, Event event, boolean handled, long waitNanos,
+      long nanos);
+
+  /**
+   * A timeout has expired and is about to be dispatched.
+   *
+   * @param scheduled The time in milliseconds the timeout expired.
+   * @param fired The time in milliseconds it is dispatched.
+   */
+  public void timeoutFired(Metadata data, Event event, long scheduled, long fired);
+}
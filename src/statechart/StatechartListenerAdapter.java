@@ -0,0 +1,84 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * A StatechartListener ignoring all notifications.
+ */
+public class StatechartListenerAdapter implements StatechartListener {
+  public void stateEntered(Metadata data, State state) {
+  }
+
+  //============================================================================
+
+  public void stateExited(Metadata data, State state) {
+  }
+
+  //============================================================================
+
+  public void lockRequested(Metadata data) {
+  }
+
+  //============================================================================
+
+  public void lockAcquired(Metadata data, long waitNanos) {
+  }
+
+  //============================================================================
+
+  public void dispatchStarted(Metadata data, Event event) {
+  }
+
+  //============================================================================
+
+  public void transitionFired(Metadata data, Transition transition, Event event) {
+  }
+
+  //============================================================================
+
+  public void transitionExecuted(Metadata data, Transition transition, long nanos) {
+  }
+
+  //============================================================================
+
+  public void eventUnhandled(Metadata data, Event event) {
+  }
+
+  //============================================================================
+
+  public void guardRejected(Metadata data, Transition transition) {
+  }
+
+  //============================================================================
+
+  public void actionExecuted(Metadata data, State state, int kind, Action action, long nanos) {
+  }
+
+  //============================================================================
+
+  public void eventDispatched(Metadata data, Event event, boolean handled, long waitNanos,
+      long nanos) {
+  }
+
+  //============================================================================
+
+  public void timeoutFired(Metadata data, Event event, long scheduled, long fired) {
+  }
+}
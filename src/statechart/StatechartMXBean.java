@@ -0,0 +1,69 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * The management interface of a statechart, registered at the platform MBean
+ * server as "statechart:type=Statechart,name=&lt;name&gt;" while the
+ * statechart is not shut down. The numbers of the timer and the threads are
+ * published by the StatechartRuntimeMXBean, as they are shared by all
+ * statecharts of a runtime.
+ */
+public interface StatechartMXBean {
+  /**
+   * Gets the name of the statechart.
+   */
+  public String getName();
+
+  /**
+   * Gets the number of events passed to dispatchAsynchron.
+   */
+  public long getAsyncEvents();
+
+  /**
+   * Gets the number of asynchronous events per second of the last completed
+   * interval. An interval lasts at least one second and is completed by the
+   * first call after it, calls within an interval return the same rate.
+   */
+  public double getAsyncEventsPerSecond();
+
+  /**
+   * Gets the number of fired timeouts.
+   */
+  public long getFiredTimeouts();
+
+  /**
+   * Gets the mean time in milliseconds between the expiry of a timeout and
+   * its dispatch.
+   */
+  public double getTimeoutLagMean();
+
+  /**
+   * Gets the largest time in milliseconds between the expiry of a timeout and
+   * its dispatch.
+   */
+  public long getTimeoutLagMax();
+
+  /**
+   * Gets the number of asynchronous events dropped because the runtime was
+   * shut down.
+   */
+  public long getRejectedEvents();
+}
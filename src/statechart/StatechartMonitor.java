@@ -0,0 +1,96 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * Publishes the statistics of a statechart via JMX.
+ */
+class StatechartMonitor implements StatechartMXBean {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private static final long RATE_INTERVAL = 1000000000L;
+
+  private Statechart statechart = null;
+
+  // the start of the current rate interval and the rate of the last completed
+  // one, guarded by this
+  private long intervalEvents = 0;
+  private long intervalStart = System.nanoTime();
+  private double rate = 0;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  StatechartMonitor(Statechart statechart) {
+    this.statechart = statechart;
+  }
+
+  //============================================================================
+
+  public String getName() {
+    return statechart.toString();
+  }
+
+  //============================================================================
+
+  public long getAsyncEvents() {
+    return statechart.asyncEvents.get();
+  }
+
+  //============================================================================
+
+  public synchronized double getAsyncEventsPerSecond() {
+    long now = System.nanoTime();
+    long elapsed = now - intervalStart;
+    if (elapsed >= RATE_INTERVAL) {
+      long events = statechart.asyncEvents.get();
+      rate = (events - intervalEvents) * 1e9 / elapsed;
+      intervalEvents = events;
+      intervalStart = now;
+    }
+    return rate;
+  }
+
+  //============================================================================
+
+  public long getFiredTimeouts() {
+    return statechart.firedTimeouts.get();
+  }
+
+  //============================================================================
+
+  public double getTimeoutLagMean() {
+    long count = statechart.firedTimeouts.get();
+    return count == 0 ? 0 : (double)statechart.timeoutLagSum.get() / count;
+  }
+
+  //============================================================================
+
+  public long getTimeoutLagMax() {
+    return statechart.timeoutLagMax.get();
+  }
+
+  //============================================================================
+
+  public long getRejectedEvents() {
+    return statechart.rejectedEvents.get();
+  }
+}
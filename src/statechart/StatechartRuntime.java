@@ -0,0 +1,415 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+
+/**
+ * Holds the executor and the timer service used for asynchronous and timeout
+ * events. A runtime can be shared by any number of statecharts. No thread is
+ * created before the first asynchronous event is dispatched or the first
+ * timeout is armed.
+ * <p>
+ * A manual runtime does not create any threads at all. The host application
+ * moves expired timeouts to the mailboxes with pollTimeouts and dispatches
+ * the waiting asynchronous events with drain, e.g. from its own event loop.
+ */
+public class StatechartRuntime {
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private String name = null;
+  private int threads = 0;
+  private boolean makeDaemonThreads = false;
+  private TimerService timer = null;
+  private volatile ExecutorService executor = null;
+  private volatile boolean started = false;
+  private volatile boolean shutdown = false;
+
+  // the mailboxes waiting to be drained in manual mode, otherwise NULL
+  private ConcurrentLinkedQueue<Mailbox> ready = null;
+
+  // the pool for broadcasts, created on the first broadcast
+  private ForkJoinPool broadcastPool = null;
+
+  private ObjectName mbeanName = null;
+
+  // distinguishes the MBeans of runtimes with the same name
+  private static final AtomicInteger mbeanIds = new AtomicInteger();
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a runtime with a fixed threadpool and the default timer service.
+   *
+   * @param name The name of the threads.
+   * @param threads The maximum number of threads available in the
+   *          threadpool. At least two threads are used.
+   * @param makeDaemonThreads Specifies if the created threads should be daemon
+   *          or non-daemon threads.
+   */
+  public StatechartRuntime(String name, int threads, boolean makeDaemonThreads) {
+    this(name, threads, makeDaemonThreads, new DelayQueueTimerService());
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a runtime with a fixed threadpool and the given timer service.
+   *
+   * @param name The name of the threads.
+   * @param threads The maximum number of threads available in the
+   *          threadpool. At least two threads are used.
+   * @param makeDaemonThreads Specifies if the created threads should be daemon
+   *          or non-daemon threads.
+   * @param timer The timer service handling the timeouts.
+   */
+  public StatechartRuntime(String name, int threads, boolean makeDaemonThreads, TimerService timer) {
+    this.name = name;
+    // we need at least two threads for asynchronous and timeout events
+    this.threads = Math.max(threads, 2);
+    this.makeDaemonThreads = makeDaemonThreads;
+    this.timer = timer;
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a runtime using the given executor, e.g. the one created by
+   * Statechart.newVirtualThreadExecutor. The executor is shut down together
+   * with the runtime.
+   *
+   * @param executor The executor running the mailboxes and the timer. Its
+   *          timer thread is blocked permanently, so a fixed pool needs at
+   *          least two threads.
+   * @param timer The timer service handling the timeouts.
+   */
+  public StatechartRuntime(ExecutorService executor, TimerService timer) {
+    this.executor = executor;
+    this.timer = timer;
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a manual runtime which does not create any threads.
+   *
+   * @param timer The timer service handling the timeouts. Its timer thread is
+   *          never started.
+   */
+  public StatechartRuntime(TimerService timer) {
+    this.timer = timer;
+    ready = new ConcurrentLinkedQueue<Mailbox>();
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the runtime is pumped manually.
+   */
+  public final boolean isManual() {
+    return ready != null;
+  }
+
+  //============================================================================
+
+  /**
+   * Hands all timeouts expired now to the mailboxes of their Metadata
+   * objects. Only useful for a manual runtime.
+   *
+   * @return The number of expired timeouts.
+   */
+  public int pollTimeouts() {
+    return pollTimeouts(System.currentTimeMillis());
+  }
+
+  //============================================================================
+
+  /**
+   * Hands all timeouts expired at the given time to the mailboxes of their
+   * Metadata objects. Only useful for a manual runtime.
+   *
+   * @param now The current time in milliseconds as returned by
+   *          System.currentTimeMillis.
+   * @return The number of expired timeouts.
+   */
+  public int pollTimeouts(long now) {
+    return timer.poll(now);
+  }
+
+  //============================================================================
+
+  /**
+   * Dispatches waiting asynchronous events in the calling thread. The events
+   * of one Metadata object are dispatched in batches as with a threadpool.
+   *
+   * @param maxEvents The maximum number of events to dispatch.
+   * @return The number of dispatched events.
+   * @throws IllegalStateException If the runtime is not manual.
+   */
+  public int drain(int maxEvents) {
+    if (ready == null) {
+      throw new IllegalStateException("The runtime is not manual");
+    }
+    int count = 0;
+    while (count < maxEvents) {
+      Mailbox box = ready.poll();
+      if (box == null) {
+        break;
+      }
+      count += box.process(maxEvents - count);
+    }
+    return count;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the timer service.
+   */
+  public final TimerService getTimerService() {
+    return timer;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the threads of the runtime have been created.
+   */
+  public final boolean isStarted() {
+    return started;
+  }
+
+  //============================================================================
+
+  /**
+   * Checks if the runtime has been shut down.
+   */
+  public final boolean isShutdown() {
+    return shutdown;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of threads running a task, including the timer thread.
+   *
+   * @return The number or -1 if the executor does not provide it.
+   */
+  public int getActiveThreadCount() {
+    ExecutorService pool = executor;
+    if (ready != null || pool == null) {
+      return 0;
+    }
+    return pool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)pool).getActiveCount() : -1;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of tasks waiting for a thread. For a manual runtime the
+   * number of mailboxes waiting to be drained.
+   *
+   * @return The number or -1 if the executor does not provide it.
+   */
+  public int getQueuedTaskCount() {
+    ExecutorService pool = executor;
+    if (ready != null) {
+      return ready.size();
+    }
+    if (pool == null) {
+      return 0;
+    }
+    return pool instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor)pool).getQueue().size() : -1;
+  }
+
+  //============================================================================
+
+  /**
+   * Shuts down the executor and the timer. The executor waits 60 seconds at
+   * most before shutting down hard.
+   */
+  public synchronized void shutdown() {
+    unregisterMBean();
+    shutdown = true;
+    timer.shutdown();
+    if (ready != null) {
+      ready.clear();
+    }
+    if (broadcastPool != null) {
+      broadcastPool.shutdown();
+    }
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(60, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // ignore and just exit the method
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Registers a StatechartRuntimeMXBean for this runtime at the platform
+   * MBean server. The name is statechart:type=StatechartRuntime,name="name",id=n
+   * where n is unique within the JVM. A runtime without a name is called
+   * "runtime". Calling it again returns the registered name. The MBean is
+   * unregistered by unregisterMBean or shutdown.
+   *
+   * @return The name of the MBean.
+   * @throws StatechartException If the MBean could not be registered.
+   */
+  public synchronized ObjectName registerMBean() throws StatechartException {
+    if (mbeanName == null) {
+      String label = name != null ? name : "runtime";
+      try {
+        ObjectName objectName = new ObjectName("statechart:type=StatechartRuntime,name="
+            + ObjectName.quote(label) + ",id=" + mbeanIds.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new StatechartRuntimeMonitor(this, label), objectName);
+        mbeanName = objectName;
+      } catch (Exception e) {
+        throw new StatechartException("Cannot register the MBean of " + label + ": " + e);
+      }
+    }
+    return mbeanName;
+  }
+
+  //============================================================================
+
+  /**
+   * Unregisters the StatechartRuntimeMXBean registered by registerMBean, if
+   * any.
+   */
+  public synchronized void unregisterMBean() {
+    if (mbeanName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      } catch (Exception e) {
+        // already unregistered
+      }
+      mbeanName = null;
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Schedules a mailbox and starts the runtime if necessary.
+   *
+   * @throws RejectedExecutionException If the runtime has been shut down.
+   */
+  void execute(Mailbox box) {
+    if (!started) {
+      start();
+    }
+    if (ready != null) {
+      if (shutdown) {
+        throw new RejectedExecutionException("The runtime has been shut down");
+      }
+      ready.offer(box);
+    } else {
+      executor.execute(box);
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the fork/join pool used for broadcasts and creates it if necessary.
+   * A manual runtime has no pool.
+   *
+   * @return The pool or NULL if the broadcast runs in the calling thread.
+   * @throws RejectedExecutionException If the runtime has been shut down.
+   */
+  synchronized ForkJoinPool getBroadcastPool() {
+    if (shutdown) {
+      throw new RejectedExecutionException("The runtime has been shut down");
+    }
+    if (broadcastPool == null && ready == null) {
+      broadcastPool = new ForkJoinPool();
+    }
+    return broadcastPool;
+  }
+
+  //============================================================================
+
+  /**
+   * Arms a timeout and starts the runtime if necessary. Timeouts armed after
+   * the shutdown are ignored.
+   */
+  void schedule(EventQueueEntry entry) {
+    if (!started) {
+      try {
+        start();
+      } catch (RejectedExecutionException e) {
+        return;
+      }
+    }
+    timer.schedule(entry);
+  }
+
+  //============================================================================
+
+  /**
+   * Starts the runtime if necessary. Ignored after the shutdown.
+   */
+  void startTimer() {
+    if (!started) {
+      try {
+        start();
+      } catch (RejectedExecutionException e) {
+        // nothing to start anymore
+      }
+    }
+  }
+
+  //============================================================================
+
+  /**
+   * Creates the threadpool if necessary and starts the timer. A manual
+   * runtime has nothing to start.
+   */
+  private synchronized void start() {
+    if (shutdown) {
+      throw new RejectedExecutionException("The runtime has been shut down");
+    }
+    if (!started && ready == null) {
+      if (executor == null) {
+        executor = Executors.newFixedThreadPool(threads,
+            new Statechart.StatechartThreadFactory(name, makeDaemonThreads));
+      }
+      timer.start(executor);
+    }
+    started = true;
+  }
+}
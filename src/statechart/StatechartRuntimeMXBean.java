@@ -0,0 +1,56 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+/**
+ * The management interface of a runtime, registered at the platform MBean
+ * server as "statechart:type=StatechartRuntime,name=&lt;name&gt;" while the
+ * runtime is not shut down. The numbers cover all statecharts sharing the
+ * runtime.
+ */
+public interface StatechartRuntimeMXBean {
+  /**
+   * Gets the name of the runtime.
+   */
+  public String getName();
+
+  /**
+   * Gets the number of entries in the timer, including cancelled ones.
+   */
+  public int getTimerQueueSize();
+
+  /**
+   * Gets the number of cancelled entries not yet removed from the timer.
+   */
+  public int getCancelledTimerEntries();
+
+  /**
+   * Gets the number of pool threads running a task. The timer thread of a
+   * DelayQueueTimerService or TimingWheelTimerService is always counted.
+   * -1 if the executor does not provide the number.
+   */
+  public int getActiveThreads();
+
+  /**
+   * Gets the number of tasks waiting for a pool thread. -1 if the executor
+   * does not provide the number.
+   */
+  public int getQueuedTasks();
+}
@@ -0,0 +1,81 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Keeps track of the armed timeouts of a statechart. When the timeout of an
+ * entry expires the entry is handed to the mailbox of its Metadata object
+ * which dispatches the timeout event.
+ */
+public interface TimerService {
+  /**
+   * Starts the timer. The timer may use a thread of the given executor.
+   * Expired entries are posted to the mailbox of their Metadata object.
+   */
+  public void start(ExecutorService executor);
+
+  /**
+   * Hands all entries expired at the given time to their mailboxes. Used
+   * instead of a timer thread if the runtime is pumped manually.
+   *
+   * @param now The current time in milliseconds as returned by
+   *          System.currentTimeMillis.
+   * @return The number of expired entries.
+   */
+  public int poll(long now);
+
+  /**
+   * Arms the timeout of the given entry.
+   */
+  public void schedule(EventQueueEntry entry);
+
+  /**
+   * Disarms the timeout of the given entry. The entry is only marked as
+   * cancelled and removed later when it reaches the head of the queue or by
+   * the next purge.
+   *
+   * @return True if the entry was armed and has not expired yet.
+   */
+  public boolean cancel(EventQueueEntry entry);
+
+  /**
+   * Removes all cancelled entries at once.
+   *
+   * @return The number of removed entries.
+   */
+  public int purge();
+
+  /**
+   * Gets the number of armed timeouts which are not cancelled.
+   */
+  public int size();
+
+  /**
+   * Gets the number of cancelled entries waiting to be removed.
+   */
+  public int getCancelledCount();
+
+  /**
+   * Stops the timer and drops all armed timeouts.
+   */
+  public void shutdown();
+}
@@ -0,0 +1,285 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hashed timing wheel. Every timeout is put into the bucket of the tick in
+ * which it expires. The buckets are double linked lists, so arming a timeout
+ * costs O(1) and only locks a single bucket. Cancelling only marks the entry,
+ * it is unlinked when its bucket is processed or by a sweep. One thread
+ * of the executor advances the wheel once per tick and hands the expired
+ * entries of the current bucket to the executor. Timeouts further away than
+ * one turn of the wheel stay in their bucket until their tick is reached.
+ * <p>
+ * Timeouts never fire early, but may fire up to one tick late.
+ */
+public class TimingWheelTimerService extends AbstractTimerService implements Runnable {
+  /**
+   * A bucket of the wheel holding the entries expiring in the same tick
+   * modulo the wheel size.
+   */
+  static class Bucket {
+    EventQueueEntry head = null;
+    EventQueueEntry tail = null;
+  }
+
+  //============================================================================
+  // ATTRIBUTES
+  //============================================================================
+  private final long tickDuration;
+  private final Bucket[] wheel;
+  private final int mask;
+  private AtomicInteger size = new AtomicInteger();
+  private volatile boolean running = false;
+
+  // the last tick whose bucket has been processed
+  private volatile long processedTick;
+
+  //============================================================================
+  // METHODS
+  //============================================================================
+  /**
+   * Creates a timing wheel with a tick of 10 milliseconds and 512 buckets.
+   */
+  public TimingWheelTimerService() {
+    this(10, 512);
+  }
+
+  //============================================================================
+
+  /**
+   * Creates a timing wheel.
+   *
+   * @param tickDuration The duration of one tick in milliseconds.
+   * @param wheelSize The number of buckets. Rounded up to the next power of
+   *          two.
+   */
+  public TimingWheelTimerService(long tickDuration, int wheelSize) {
+    if (tickDuration <= 0 || wheelSize <= 0) {
+      throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+    }
+    int buckets = 1;
+    while (buckets < wheelSize) {
+      buckets <<= 1;
+    }
+    this.tickDuration = tickDuration;
+    this.mask = buckets - 1;
+    wheel = new Bucket[buckets];
+    for (int i = 0; i < buckets; i++) {
+      wheel[i] = new Bucket();
+    }
+    processedTick = System.currentTimeMillis() / tickDuration;
+  }
+
+  //============================================================================
+
+  public void start(ExecutorService executor) {
+    this.executor = executor;
+    running = true;
+    executor.execute(this);
+  }
+
+  //============================================================================
+
+  public void schedule(EventQueueEntry entry) {
+    // round up so that a timeout never fires too early
+    long tick = (entry.getAbsoluteTimeout() + tickDuration - 1) / tickDuration;
+    while (true) {
+      long target = Math.max(tick, processedTick + 1);
+      Bucket bucket = wheel[(int)(target & mask)];
+      synchronized (bucket) {
+        // the wheel only advances while holding the lock of the bucket, so
+        // if the tick is still in the future the entry will be seen
+        if (processedTick < target) {
+          arm(entry);
+          entry.wheelTick = target;
+          entry.wheelBucket = bucket;
+          entry.wheelPrev = bucket.tail;
+          entry.wheelNext = null;
+          if (bucket.tail == null) {
+            bucket.head = entry;
+          } else {
+            bucket.tail.wheelNext = entry;
+          }
+          bucket.tail = entry;
+          size.incrementAndGet();
+          return;
+        }
+      }
+    }
+  }
+
+  //============================================================================
+
+  public int poll(long now) {
+    int count = advance(now / tickDuration);
+    if (needsSweep()) {
+      purge();
+    }
+    return count;
+  }
+
+  //============================================================================
+
+  public void shutdown() {
+    running = false;
+    for (Bucket bucket : wheel) {
+      synchronized (bucket) {
+        while (bucket.head != null) {
+          unlink(bucket, bucket.head);
+        }
+      }
+    }
+    resetCancelled();
+  }
+
+  //============================================================================
+
+  protected int getEntryCount() {
+    return size.get();
+  }
+
+  //============================================================================
+
+  protected int sweep() {
+    int count = 0;
+    for (Bucket bucket : wheel) {
+      synchronized (bucket) {
+        EventQueueEntry entry = bucket.head;
+        while (entry != null) {
+          EventQueueEntry next = entry.wheelNext;
+          if (claim(entry)) {
+            unlink(bucket, entry);
+            release(entry);
+            count++;
+          }
+          entry = next;
+        }
+      }
+    }
+    return count;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the duration of one tick in milliseconds.
+   */
+  public long getTickDuration() {
+    return tickDuration;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the number of buckets.
+   */
+  public int getWheelSize() {
+    return wheel.length;
+  }
+
+  //============================================================================
+
+  /**
+   * Removes the entry from the bucket. The lock of the bucket must be held.
+   */
+  private void unlink(Bucket bucket, EventQueueEntry entry) {
+    if (entry.wheelPrev == null) {
+      bucket.head = entry.wheelNext;
+    } else {
+      entry.wheelPrev.wheelNext = entry.wheelNext;
+    }
+    if (entry.wheelNext == null) {
+      bucket.tail = entry.wheelPrev;
+    } else {
+      entry.wheelNext.wheelPrev = entry.wheelPrev;
+    }
+    entry.wheelPrev = null;
+    entry.wheelNext = null;
+    entry.wheelBucket = null;
+    size.decrementAndGet();
+  }
+
+  //============================================================================
+
+  /**
+   * Advances the wheel to the given tick and fires all entries expired so
+   * far. Cancelled entries of the processed buckets are dropped. If the
+   * wheel lags behind more than one turn every bucket is processed only once.
+   *
+   * @return The number of fired entries.
+   */
+  private synchronized int advance(long now) {
+    int count = 0;
+    long from = Math.max(processedTick + 1, now - mask);
+    for (long tick = from; tick <= now; tick++) {
+      Bucket bucket = wheel[(int)(tick & mask)];
+      EventQueueEntry expired = null;
+      synchronized (bucket) {
+        processedTick = tick;
+        EventQueueEntry entry = bucket.head;
+        while (entry != null) {
+          EventQueueEntry next = entry.wheelNext;
+          if (entry.wheelTick <= tick || entry.timerState == EventQueueEntry.CANCELLED) {
+            unlink(bucket, entry);
+            entry.wheelNext = expired;
+            expired = entry;
+          }
+          entry = next;
+        }
+      }
+      // hand over the entries without holding the lock
+      while (expired != null) {
+        EventQueueEntry next = expired.wheelNext;
+        expired.wheelNext = null;
+        if (expire(expired)) {
+          count++;
+        }
+        expired = next;
+      }
+    }
+    return count;
+  }
+
+  //============================================================================
+  // Inherited by Runnable
+  //============================================================================
+  /**
+   * Advances the wheel once per tick.
+   */
+  public void run() {
+    while (running && !executor.isShutdown()) {
+      long now = System.currentTimeMillis();
+      advance(now / tickDuration);
+      if (needsSweep()) {
+        purge();
+      }
+      long sleep = (now / tickDuration + 1) * tickDuration - now;
+      try {
+        Thread.sleep(sleep);
+      } catch (InterruptedException e) {
+        // ignore the exception and advance the wheel
+      }
+    }
+  }
+}
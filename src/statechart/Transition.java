@@ -38,10 +38,16 @@ public class Transition {
   Action action = null;
 
   // List of all states which must be deactivated when triggering.
-  Vector<State> deactivate = new Vector<State>();
+  State[] deactivate = null;
 
   // List of all states which must be activated when triggering.
-  Vector<State> activate = new Vector<State>();
+  State[] activate = null;
+
+  // The start state.
+  State start = null;
+
+  // The statechart of the start state.
+  Statechart statechart = null;
   
   //============================================================================
   // METHODS
@@ -127,65 +133,111 @@ public class Transition {
    */
   boolean execute(Event event, Metadata data, Parameter parameter) {
     // check if the event can be handled
-    if (this.event != null && !this.event.equals(event, data, parameter)) {
-      return false;
-    }
+    if (this.event != null) {
+      if (event == null) {
+        return false;
+      }
 
-    if (this.event != null && event == null) {
-      return false;
+      // compare the interned codes if both events use the default equality
+      if (this.event.comparesByCode && event.comparesByCode) {
+        if (this.event.code != event.code) {
+          return false;
+        }
+      } else if (!this.event.equals(event, data, parameter)) {
+        return false;
+      }
     }
 
     if (!allowed(data, parameter)) {
       return false;
     }
-
-    // deactivate all states
-    for (int i = 0; i < deactivate.size(); i++) {
-      deactivate.get(i).deactivate(data, parameter);
+    FlightRecorder recorder = data.recorder;
+    if (recorder != null) {
+      recorder.record(event != null ? event.code : FlightRecorder.NO_EVENT, start.ordinal,
+                      getTarget().ordinal, System.currentTimeMillis());
     }
-
-    // Execute exit-action
-    if (action != null) {
-      action.execute(data, parameter);
+    StatechartListener listener = statechart.listener;
+    long begin = 0;
+    if (listener != null) {
+      listener.transitionFired(data, this, event);
+      begin = System.nanoTime();
     }
 
-    // Activate all new states.
-    for (int i = 0; i < activate.size(); i++) {
-      /*
-       * check if we activate an concurrent state imlicit and if so make sure
-       * adding the correct region to the list of regions to ignore on
-       * activation. It is activated by this transition.
-       */
-      if (i + 1 < activate.size() && activate.get(i) instanceof ConcurrentState) {
-        ConcurrentState s = (ConcurrentState) activate.get(i);
-        StateRuntimedata cd = data.createRuntimedata(s);
-
-        if (!cd.stateset.contains(activate.get(i + 1))) {
-          cd.stateset.add(activate.get(i + 1));
+    try {
+      // deactivate all states
+      for (int i = 0; i < deactivate.length; i++) {
+        deactivate[i].deactivate(data, parameter);
+      }
+
+      // Execute exit-action
+      if (action != null) {
+        statechart.execute(start, StatechartListener.TRANSITION_ACTION, action, data, parameter);
+      }
+
+      // Activate all new states.
+      for (int i = 0; i < activate.length; i++) {
+        /*
+         * check if we activate an concurrent state imlicit and if so make sure
+         * adding the correct region to the list of regions to ignore on
+         * activation. It is activated by this transition.
+         */
+        if (i + 1 < activate.length && activate[i] instanceof ConcurrentState) {
+          ConcurrentState s = (ConcurrentState) activate[i];
+          StateRuntimedata cd = data.createRuntimedata(s);
+
+          if (!cd.stateset.contains(activate[i + 1])) {
+            cd.stateset.add(activate[i + 1]);
+          }
         }
+        activate[i].activate(data, parameter);
+      }
+    } finally {
+      if (listener != null) {
+        listener.transitionExecuted(data, this, System.nanoTime() - begin);
       }
-      activate.get(i).activate(data, parameter);
     }
     return true;
   }
 
   //============================================================================
 
+  /**
+   * Gets the state this transition starts from.
+   */
+  public State getStart() {
+    return start;
+  }
+
+  //============================================================================
+
+  /**
+   * Gets the innermost state activated by this transition. This may be a
+   * pseudo state, e.g. a junction or a choice.
+   */
+  public State getTarget() {
+    return activate.length != 0 ? activate[activate.length - 1] : start;
+  }
+
+  //============================================================================
+
   /**
    * Checks if all constraints are fullfilled. To do this the whole path up to
    * the next real state is checked.
    */
   boolean allowed(Metadata data, Parameter parameter) {
     if (guard != null && !guard.check(data, parameter)) {
+      StatechartListener listener = statechart.listener;
+      if (listener != null) {
+        listener.guardRejected(data, this);
+      }
       return false;
     }
 
     /*
      * if target is a pseudostate, call lookup to check if we do not stay in
-     * this state. So get the last state in the activate list. end() is behind
-     * the last element so we have to select the prior element by using *--.
+     * this state. So get the last state in the activate list.
      */
-    State target = (State) activate.lastElement();
+    State target = activate[activate.length - 1];
     if (target instanceof PseudoState) {
       return ((PseudoState) target).lookup(data, parameter);
     }
@@ -200,10 +252,21 @@ public class Transition {
    */
   private void init(State start, State end, Event event, Guard guard,
       Action action) {
+    if (start.statechart != null && start.statechart.frozen) {
+      throw new IllegalStateException("Statechart is frozen, cannot add transition from <"
+          + start + "> to <" + end + ">");
+    }
     this.event = event;
     this.guard = guard;
     this.action = action;
+    this.start = start;
+    this.statechart = start.statechart;
+
+    Vector<State> deactivate = new Vector<State>();
+    Vector<State> activate = new Vector<State>();
     Transition.calculateStateSet(start, end, deactivate, activate);
+    this.deactivate = deactivate.toArray(new State[deactivate.size()]);
+    this.activate = activate.toArray(new State[activate.size()]);
     start.addTransition(this);
 
     // for handling join states correctly, we need to know the incoming
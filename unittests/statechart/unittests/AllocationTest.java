@@ -0,0 +1,140 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.BitsetMetadata;
+import statechart.EventQueueEntry;
+import statechart.Metadata;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+
+/**
+ * Checks that dispatching with recycled runtime data does not allocate any
+ * objects once all states were visited. This holds for charts without
+ * timeouts only, a cancelled timeout entry is reused after the timer service
+ * purged it, see testTimeoutReuse. The result is given in bytes per
+ * dispatched event, a few bytes are allocated by the measurement itself.
+ */
+public class AllocationTest {
+  private static final int WARMUP = 20000;
+  private static final int ROUNDS = 20000;
+  private static final long MAX_ALLOCATED = 1024;
+
+  //============================================================================
+  // Charts without timeouts which stay in a loop of states
+  //============================================================================
+  @Test
+  public void testLoops() throws StatechartException {
+    assertNoAllocation(TestCharts.t2(), 0, false, 1);
+    assertNoAllocation(TestCharts.h4(), 0, false, 1, 2, 2);
+    assertNoAllocation(TestCharts.c10(), 0, false, 1, 1, 1, 2);
+  }
+
+  //============================================================================
+  // Charts which are started again after reaching the final state
+  //============================================================================
+  @Test
+  public void testRestarts() throws StatechartException {
+    assertNoAllocation(TestCharts.t1(), 0, true);
+    assertNoAllocation(TestCharts.t4(), 2, true);
+    assertNoAllocation(TestCharts.h5(), 0, true, 2, 4, 1, 2, 2, 3);
+    assertNoAllocation(TestCharts.c2(), 0, true, 2, 1, 2);
+    assertNoAllocation(TestCharts.c7(), 1, true);
+    assertNoAllocation(TestCharts.c8(), 0, true);
+  }
+
+  //============================================================================
+  // Timeout entries are reused after the cancelled timeout was purged
+  //============================================================================
+  @Test
+  public void testTimeoutReuse() throws StatechartException {
+    Statechart chart = TestCharts.t3();
+    State a = chart.getStateByName("a");
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata(true);
+
+    chart.start(data, parameter);
+    EventQueueEntry entry = data.getData(a).timeoutEvents.get(0);
+    Assert.assertTrue(chart.dispatch(data, new TestEvent(1), parameter));
+    // the cancelled entry can be reused as soon as the timer dropped it
+    chart.getTimerService().purge();
+    while (chart.getTimerService().getCancelledCount() > 0) {
+      Thread.yield();
+    }
+    chart.start(data, parameter);
+    Assert.assertSame(entry, data.getData(a).timeoutEvents.get(0));
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private void assertNoAllocation(Statechart chart, int guard, boolean restart, int... events) {
+    TestEvent[] list = new TestEvent[events.length];
+    for (int i = 0; i < events.length; i++) {
+      list[i] = new TestEvent(events[i]);
+    }
+    TestParameter parameter = new TestParameter();
+    parameter.guardvalue = guard;
+    parameter.recording = false;
+
+    Metadata[] data = { new Metadata(true), new BitsetMetadata(true) };
+    for (Metadata d : data) {
+      chart.start(d, parameter);
+      run(chart, d, parameter, restart, list, WARMUP);
+
+      long before = allocatedBytes();
+      long overhead = allocatedBytes() - before;
+
+      before = allocatedBytes();
+      run(chart, d, parameter, restart, list, ROUNDS);
+      long allocated = allocatedBytes() - before - overhead;
+
+      // a single allocation per dispatch would exceed the bound many times
+      Assert.assertTrue(chart + " with " + d.getClass().getSimpleName() + " allocated "
+          + allocated + " bytes", allocated <= MAX_ALLOCATED);
+    }
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private void run(Statechart chart, Metadata data, TestParameter parameter,
+      boolean restart, TestEvent[] events, int rounds) {
+    for (int i = 0; i < rounds; i++) {
+      if (restart) {
+        chart.start(data, parameter);
+      }
+      for (int j = 0; j < events.length; j++) {
+        chart.dispatch(data, events[j], parameter);
+      }
+    }
+  }
+
+  //============================================================================
+
+  private long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
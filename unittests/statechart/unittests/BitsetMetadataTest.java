@@ -0,0 +1,96 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.BitsetMetadata;
+import statechart.Metadata;
+import statechart.Statechart;
+import statechart.StatechartException;
+
+public class BitsetMetadataTest {
+  //============================================================================
+  // The bitset must show the same behaviour as the default implementation
+  //============================================================================
+  @Test
+  public void testSameSemantics() throws StatechartException {
+    compare(TestCharts.t2(), 0, 1, 1, 2);
+    compare(TestCharts.t4(), 1);
+    compare(TestCharts.t4(), 2);
+    compare(TestCharts.h4(), 0, 1, 2, 1, 2, 1, 2, 3);
+    compare(TestCharts.h5(), 0, 2, 4, 1, 2, 2, 3);
+    compare(TestCharts.c2(), 0, 2, 1, 2);
+    compare(TestCharts.c7(), 1);
+    compare(TestCharts.c8(), 0);
+    compare(TestCharts.c10(), 0, 1, 1, 2, 1, 1, 2);
+  }
+
+  //============================================================================
+  // Configuration checks with masks
+  //============================================================================
+  @Test
+  public void testConfiguration() throws StatechartException {
+    Statechart chart = TestCharts.c2();
+    BitsetMetadata data = new BitsetMetadata();
+    TestParameter parameter = new TestParameter();
+
+    Assert.assertTrue(chart.start(data, parameter));
+    long[] ac = BitsetMetadata.mask(chart.getStateByName("a"), chart.getStateByName("c"));
+    long[] bd = BitsetMetadata.mask(chart.getStateByName("b"), chart.getStateByName("d"));
+    long[] ad = BitsetMetadata.mask(chart.getStateByName("a"), chart.getStateByName("d"));
+
+    Assert.assertTrue(data.isActive(ac));
+    Assert.assertFalse(data.isAnyActive(bd));
+    Assert.assertTrue(chart.dispatch(data, new TestEvent(1), parameter));
+    Assert.assertFalse(data.isActive(ac));
+    Assert.assertTrue(data.isActive(ad));
+    Assert.assertTrue(data.isAnyActive(bd));
+
+    // simple states have no runtime data but composite states have
+    Assert.assertNull(data.getData(chart.getStateByName("a")));
+    Assert.assertEquals(chart.getStateByName("d"),
+        data.getData(chart.getStateByName("p-r2")).currentState);
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private void compare(Statechart chart, int guard, int... events) {
+    Assert.assertEquals(run(chart, new Metadata(), guard, events),
+        run(chart, new BitsetMetadata(), guard, events));
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private String run(Statechart chart, Metadata data, int guard, int... events) {
+    TestParameter parameter = new TestParameter();
+    parameter.guardvalue = guard;
+    chart.start(data, parameter);
+    for (int e : events) {
+      parameter.path += " " + chart.dispatch(data, new TestEvent(e), parameter);
+    }
+    for (int i = 0; i < chart.getStateCount(); i++) {
+      parameter.path += data.isActive(chart.getStateByOrdinal(i)) ? " 1" : " 0";
+    }
+    return parameter.path;
+  }
+}
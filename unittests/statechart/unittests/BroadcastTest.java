@@ -0,0 +1,130 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.Action;
+import statechart.BroadcastResult;
+import statechart.DelayQueueTimerService;
+import statechart.Metadata;
+import statechart.Parameter;
+import statechart.PseudoState;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.StatechartRuntime;
+import statechart.Transition;
+
+public class BroadcastTest {
+  //============================================================================
+  // The event is dispatched to every Metadata object
+  //============================================================================
+  @Test
+  public void testBroadcast() throws StatechartException {
+    Statechart chart = TestCharts.t2();
+    assertBroadcast(chart);
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // A manual runtime broadcasts in the calling thread
+  //============================================================================
+  @Test
+  public void testManualBroadcast() throws StatechartException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    assertBroadcast(TestCharts.t2(new Statechart("t2", runtime)));
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // A failing dispatch is recorded and the others still get the event
+  //============================================================================
+  @Test
+  public void testFailedDispatch() throws StatechartException {
+    final List<Metadata> failing = new ArrayList<Metadata>();
+    Statechart chart = new Statechart("failing", 4, true);
+    State start = new PseudoState("start", chart, PseudoState.pseudostate_start);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, new Action() {
+      public void execute(Metadata data, Parameter parameter) {
+        if (failing.contains(data)) {
+          throw new IllegalStateException("failed");
+        }
+      }
+    }, null, null);
+    new Transition(start, a);
+    new Transition(a, b, new TestEvent(1));
+
+    List<Metadata> population = new ArrayList<Metadata>();
+    for (int i = 0; i < 100; i++) {
+      Metadata data = new Metadata();
+      chart.start(data);
+      population.add(data);
+      if (i % 10 == 0) {
+        failing.add(data);
+      }
+    }
+
+    BroadcastResult result = chart.broadcast(population, new TestEvent(1), null, 8);
+    Assert.assertEquals(90, result.getHandledCount());
+    Assert.assertEquals(0, result.getUnhandledCount());
+    Assert.assertEquals(10, result.getFailedCount());
+    for (Metadata data : failing) {
+      Assert.assertEquals("failed", result.getFailures().get(data).getMessage());
+    }
+    for (Metadata data : population) {
+      Assert.assertTrue(failing.contains(data) || data.isActive(b));
+    }
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private void assertBroadcast(Statechart chart) {
+    TestParameter parameter = new TestParameter();
+    parameter.recording = false;
+
+    List<Metadata> population = new ArrayList<Metadata>();
+    for (int i = 0; i < 10000; i++) {
+      Metadata data = new Metadata();
+      chart.start(data, parameter);
+      population.add(data);
+    }
+
+    BroadcastResult result = chart.broadcast(population, new TestEvent(1), parameter, 1000);
+    Assert.assertEquals(10000, result.getHandledCount());
+    Assert.assertEquals(0, result.getUnhandledCount());
+    Assert.assertEquals(10, result.getPartitionCount());
+
+    // every third object reaches the final state
+    for (int i = 0; i < population.size(); i += 3) {
+      chart.dispatch(population.get(i), new TestEvent(2), parameter);
+    }
+    result = chart.broadcast(population, new TestEvent(1), parameter, 4096);
+    Assert.assertEquals(6666, result.getHandledCount());
+    Assert.assertEquals(3334, result.getUnhandledCount());
+    Assert.assertEquals(3, result.getPartitionCount());
+    Assert.assertTrue(result.getMaxPartitionLatency() > 0);
+    Assert.assertTrue(result.getElapsedTime() >= result.getMaxPartitionLatency());
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.Action;
+import statechart.Event;
+import statechart.EventRegistry;
+import statechart.FlightRecorder;
+import statechart.Metadata;
+import statechart.Parameter;
+import statechart.PseudoState;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.Transition;
+
+public class FlightRecorderTest {
+  static class NamedEvent extends Event {
+    NamedEvent(String id) {
+      super(id);
+    }
+  }
+
+  //============================================================================
+
+  private Statechart createChart() throws StatechartException {
+    Statechart chart = new Statechart("recorded", 1, true);
+    State start = new PseudoState("start", chart, PseudoState.pseudostate_start);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(start, a);
+    new Transition(a, b, new NamedEvent("go"));
+    new Transition(b, a, new NamedEvent("back"));
+    new Transition(b, a, new NamedEvent("fail"), new Action() {
+      public void execute(Metadata data, Parameter parameter) {
+        throw new IllegalStateException("failed");
+      }
+    });
+    return chart;
+  }
+
+  //============================================================================
+  // Only the last steps are kept, the oldest first
+  //============================================================================
+  @Test
+  public void testRecording() throws StatechartException {
+    Statechart chart = createChart();
+    Metadata data = new Metadata();
+    data.setFlightRecorder(new FlightRecorder(2));
+
+    Assert.assertTrue(chart.start(data));
+    FlightRecorder recorder = data.getFlightRecorder();
+    Assert.assertEquals(1, recorder.size());
+    Assert.assertEquals(FlightRecorder.NO_EVENT, recorder.getEvent(0));
+
+    Assert.assertTrue(chart.dispatch(data, new NamedEvent("go")));
+    Assert.assertTrue(chart.dispatch(data, new NamedEvent("back")));
+    Assert.assertFalse(chart.dispatch(data, new NamedEvent("back")));
+    Assert.assertEquals(3, recorder.getCount());
+    Assert.assertEquals(2, recorder.size());
+
+    Assert.assertEquals(EventRegistry.getCode("go"), recorder.getEvent(0));
+    Assert.assertEquals(chart.getStateByName("a").getOrdinal(), recorder.getSource(0));
+    Assert.assertEquals(chart.getStateByName("b").getOrdinal(), recorder.getTarget(0));
+    Assert.assertEquals(EventRegistry.getCode("back"), recorder.getEvent(1));
+    Assert.assertEquals(chart.getStateByName("a").getOrdinal(), recorder.getTarget(1));
+    Assert.assertTrue(recorder.getTime(1) >= recorder.getTime(0));
+
+    String dump = recorder.dump(chart);
+    Assert.assertTrue(dump, dump.startsWith("last 2 of 3 steps"));
+    Assert.assertTrue(dump, dump.endsWith("b -> a [back]"));
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // An exception thrown by a dispatch carries the recorded steps
+  //============================================================================
+  @Test
+  public void testTraceOnException() throws StatechartException {
+    Statechart chart = createChart();
+    Metadata data = new Metadata();
+    data.setFlightRecorder(new FlightRecorder(16));
+    Assert.assertTrue(chart.start(data));
+    Assert.assertTrue(chart.dispatch(data, new NamedEvent("go")));
+
+    try {
+      chart.dispatch(data, new NamedEvent("fail"));
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(1, e.getSuppressed().length);
+      Assert.assertTrue(e.getSuppressed()[0] instanceof FlightRecorder.Trace);
+      String trace = e.getSuppressed()[0].getMessage();
+      Assert.assertTrue(trace, trace.contains("start -> a [-]"));
+      Assert.assertTrue(trace, trace.contains("a -> b [go]"));
+      Assert.assertTrue(trace, trace.endsWith("b -> a [fail]"));
+    }
+    chart.shutdown();
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.Action;
+import statechart.FinalState;
+import statechart.InstanceRegistry;
+import statechart.Metadata;
+import statechart.MetadataFactory;
+import statechart.Parameter;
+import statechart.PseudoState;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.TimeoutEvent;
+import statechart.Transition;
+
+public class InstanceRegistryTest {
+  /**
+   * Remembers the threads dispatching the events of a key.
+   */
+  static class KeyData extends Metadata {
+    Set<String> threads = new HashSet<String>();
+    int count = 0;
+  }
+
+  static class Record implements Action {
+    public void execute(Metadata data, Parameter param) {
+      KeyData key = (KeyData)data;
+      key.threads.add(Thread.currentThread().getName());
+      key.count++;
+    }
+  }
+
+  //============================================================================
+  // All events of a key are dispatched in order by the thread of its shard
+  //============================================================================
+  @Test
+  public void testKeyAffinity() throws StatechartException, InterruptedException {
+    Statechart chart = new Statechart("registry", 2, true);
+    State a = new State("a", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, a, new TestEvent(1), new Record());
+    new Transition(a, new FinalState("end", chart), new TestEvent(2));
+
+    InstanceRegistry<String> registry = new InstanceRegistry<String>("registry", chart, 4,
+      new MetadataFactory<String>() {
+        public Metadata createMetadata(String key) {
+          return new KeyData();
+        }
+      });
+
+    for (int j = 0; j < 5; j++) {
+      for (int i = 0; i < 100; i++) {
+        registry.dispatchAsynchron("key" + i, new TestEvent(1));
+      }
+    }
+    for (int i = 0; i < 100; i++) {
+      registry.dispatchAsynchron("key" + i, new TestEvent(2));
+    }
+    Assert.assertEquals(100, registry.size());
+
+    String[] shardThreads = new String[registry.getShardCount()];
+    for (int i = 0; i < 100; i++) {
+      KeyData data = (KeyData)registry.get("key" + i);
+      TestCharts.waitForFinalState(chart, data);
+      synchronized (data) {
+        Assert.assertEquals(5, data.count);
+        Assert.assertEquals(1, data.threads.size());
+        String thread = data.threads.iterator().next();
+        int shard = registry.getShard("key" + i);
+        if (shardThreads[shard] == null) {
+          shardThreads[shard] = thread;
+        }
+        Assert.assertEquals(shardThreads[shard], thread);
+      }
+    }
+
+    Assert.assertNotNull(registry.remove("key0"));
+    Assert.assertNull(registry.get("key0"));
+    Assert.assertEquals(99, registry.size());
+    registry.shutdown();
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // Concurrent first events of a key are dispatched after the start
+  //============================================================================
+  @Test
+  public void testConcurrentCreate() throws StatechartException, InterruptedException {
+    Statechart chart = new Statechart("concurrent", 2, true);
+    State a = new State("a", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, a, new TestEvent(1), new Record());
+
+    final InstanceRegistry<String> registry = new InstanceRegistry<String>("concurrent", chart,
+      2, new MetadataFactory<String>() {
+        public Metadata createMetadata(String key) {
+          return new KeyData();
+        }
+      });
+
+    final int keys = 200;
+    final CountDownLatch go = new CountDownLatch(1);
+    Thread[] callers = new Thread[8];
+    for (int t = 0; t < callers.length; t++) {
+      callers[t] = new Thread() {
+        public void run() {
+          try {
+            go.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < keys; i++) {
+            registry.dispatchAsynchron("key" + i, new TestEvent(1));
+          }
+        }
+      };
+      callers[t].start();
+    }
+    go.countDown();
+    for (Thread caller : callers) {
+      caller.join();
+    }
+    registry.shutdown();
+
+    Assert.assertEquals(keys, registry.size());
+    for (int i = 0; i < keys; i++) {
+      KeyData data = (KeyData)registry.get("key" + i);
+      synchronized (data) {
+        Assert.assertEquals(callers.length, data.count);
+        Assert.assertSame(a, data.getData(chart).currentState);
+      }
+    }
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // The timeouts of a removed key do not fire
+  //============================================================================
+  @Test
+  public void testRemoveCancelsTimeouts() throws StatechartException, InterruptedException {
+    Statechart chart = new Statechart("remove", 2, true);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TimeoutEvent(100), new Record());
+
+    InstanceRegistry<String> registry = new InstanceRegistry<String>("remove", chart, 2,
+      new MetadataFactory<String>() {
+        public Metadata createMetadata(String key) {
+          return new KeyData();
+        }
+      });
+    KeyData data = (KeyData)registry.getOrCreate("key", null);
+    boolean started = false;
+    while (!started) {
+      synchronized (data) {
+        started = data.isActive(a);
+      }
+      Thread.sleep(1);
+    }
+    Assert.assertEquals(1, chart.getTimerService().size());
+
+    Assert.assertSame(data, registry.remove("key"));
+    Assert.assertEquals(0, chart.getTimerService().size());
+    Thread.sleep(300);
+    synchronized (data) {
+      Assert.assertEquals(0, data.count);
+      Assert.assertTrue(data.isActive(a));
+    }
+    registry.shutdown();
+    chart.shutdown();
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.DelayQueueTimerService;
+import statechart.Event;
+import statechart.Journal;
+import statechart.JournalCodec;
+import statechart.Metadata;
+import statechart.MetadataCodec;
+import statechart.Parameter;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.StatechartRuntime;
+
+public class JournalTest {
+  /**
+   * Journals the TestEvent numbers, the parameters are not journaled.
+   */
+  static class TestJournalCodec implements JournalCodec {
+    public byte[] encodeEvent(Event event) {
+      return new byte[] { (byte)((TestEvent)event).getNumber() };
+    }
+
+    public Event decodeEvent(byte[] bytes) {
+      return new TestEvent(bytes[0]);
+    }
+
+    public byte[] encodeParameter(Parameter parameter) {
+      return new byte[0];
+    }
+
+    public Parameter decodeParameter(byte[] bytes) {
+      return new TestParameter();
+    }
+  }
+
+  //============================================================================
+  // The replayed instances equal the journaled ones
+  //============================================================================
+  @Test
+  public void testReplay() throws StatechartException, IOException {
+    File directory = Files.createTempDirectory("journal").toFile();
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t2(new Statechart("t2", runtime));
+    MetadataCodec codec = new MetadataCodec(chart);
+
+    Journal journal = new Journal(directory, chart, new TestJournalCodec());
+    Metadata x = new Metadata();
+    Metadata y = new Metadata();
+    Assert.assertTrue(journal.start("x", x, new TestParameter()));
+    Assert.assertTrue(journal.start("y", y, new TestParameter()));
+    Assert.assertTrue(journal.dispatch("x", x, new TestEvent(1), new TestParameter()));
+    Assert.assertTrue(journal.dispatch("x", x, new TestEvent(2), new TestParameter()));
+    journal.dispatchAsynchron("y", y, new TestEvent(1), new TestParameter());
+    journal.close();
+    Assert.assertEquals(5, journal.getCommittedSequence());
+    Assert.assertEquals(1, runtime.drain(10));
+
+    Map<String, Metadata> instances = new HashMap<String, Metadata>();
+    journal = new Journal(directory, chart, new TestJournalCodec());
+    Assert.assertEquals(5, journal.replay(instances));
+    Assert.assertEquals(2, instances.size());
+    Assert.assertArrayEquals(codec.encode(x), codec.encode(instances.get("x")));
+    Assert.assertArrayEquals(codec.encode(y), codec.encode(instances.get("y")));
+    journal.close();
+
+    delete(directory);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Replay the records after a snapshot, a torn record at the end is ignored
+  //============================================================================
+  @Test
+  public void testReplayFromSnapshot() throws StatechartException, IOException {
+    File directory = Files.createTempDirectory("journal").toFile();
+    Statechart chart = TestCharts.t2();
+    MetadataCodec codec = new MetadataCodec(chart);
+
+    Journal journal = new Journal(directory, chart, new TestJournalCodec());
+    Metadata data = new Metadata();
+    journal.start("x", data, new TestParameter());
+    journal.dispatch("x", data, new TestEvent(1), new TestParameter());
+    byte[] snapshot = codec.encode(data);
+    long sequence = journal.getCommittedSequence();
+    journal.dispatch("x", data, new TestEvent(2), new TestParameter());
+    journal.close();
+
+    // simulate a crash while writing a record
+    File[] segments = directory.listFiles();
+    Assert.assertEquals(1, segments.length);
+    FileOutputStream out = new FileOutputStream(segments[0], true);
+    out.write(new byte[] { 20, 1, 2, 3 });
+    out.close();
+
+    Metadata restored = new Metadata();
+    codec.decode(snapshot, restored, new TestParameter());
+    Map<String, Metadata> instances = new HashMap<String, Metadata>();
+    instances.put("x", restored);
+    journal = new Journal(directory, chart, new TestJournalCodec());
+    Assert.assertEquals(3, journal.replay(instances, null, sequence));
+    Assert.assertArrayEquals(codec.encode(data), codec.encode(restored));
+
+    // appending continues after the last valid record
+    Metadata other = new Metadata();
+    journal.start("y", other, new TestParameter());
+    Assert.assertEquals(4, journal.getCommittedSequence());
+    journal.close();
+
+    delete(directory);
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // A synchronous dispatch runs after the asynchronous events journaled before
+  //============================================================================
+  @Test
+  public void testRecordOrder() throws StatechartException, IOException {
+    File directory = Files.createTempDirectory("journal").toFile();
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t2(new Statechart("t2", runtime));
+    MetadataCodec codec = new MetadataCodec(chart);
+
+    Journal journal = new Journal(directory, chart, new TestJournalCodec());
+    Metadata data = new Metadata();
+    TestParameter parameter = new TestParameter();
+    Assert.assertTrue(journal.start("x", data, parameter));
+    journal.dispatchAsynchron("x", data, new TestEvent(1), parameter);
+    Assert.assertTrue(journal.dispatch("x", data, new TestEvent(2), parameter));
+    Assert.assertEquals("D:start A:a D:a A:a D:a A:end", parameter.path);
+    journal.close();
+    // the mailbox finds its event dispatched already
+    runtime.drain(10);
+    Assert.assertEquals("D:start A:a D:a A:a D:a A:end", parameter.path);
+
+    Map<String, Metadata> instances = new HashMap<String, Metadata>();
+    journal = new Journal(directory, chart, new TestJournalCodec());
+    journal.replay(instances);
+    Assert.assertArrayEquals(codec.encode(data), codec.encode(instances.get("x")));
+    journal.close();
+
+    delete(directory);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Fired timeouts are replayed at their position
+  //============================================================================
+  @Test
+  public void testReplayTimeout() throws StatechartException, IOException {
+    File directory = Files.createTempDirectory("journal").toFile();
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t3(new Statechart("t3", runtime));
+    MetadataCodec codec = new MetadataCodec(chart);
+
+    Journal journal = new Journal(directory, chart, new TestJournalCodec());
+    Metadata x = new Metadata();
+    Metadata y = new Metadata();
+    Assert.assertTrue(journal.start("x", x, new TestParameter()));
+    Assert.assertTrue(journal.start("y", y, new TestParameter()));
+    Assert.assertEquals(2, runtime.pollTimeouts(System.currentTimeMillis() + 2000));
+    // y leaves the state of the timeout before its mailbox runs
+    Assert.assertTrue(journal.dispatch("y", y, new TestEvent(1), new TestParameter()));
+    Assert.assertEquals(2, runtime.drain(10));
+    Assert.assertEquals(4, journal.getCommittedSequence());
+    journal.close();
+
+    Map<String, Metadata> instances = new HashMap<String, Metadata>();
+    journal = new Journal(directory, chart, new TestJournalCodec());
+    Assert.assertEquals(4, journal.replay(instances));
+    Assert.assertArrayEquals(codec.encode(x), codec.encode(instances.get("x")));
+    Assert.assertArrayEquals(codec.encode(y), codec.encode(instances.get("y")));
+    Assert.assertSame(chart.getStateByName("end"), instances.get("x").getData(chart).currentState);
+    journal.close();
+
+    delete(directory);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Timeouts firing during the replay are dispatched after it
+  //============================================================================
+  @Test
+  public void testTimeoutDuringReplay() throws StatechartException, IOException {
+    File directory = Files.createTempDirectory("journal").toFile();
+    final StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t3(new Statechart("t3", runtime));
+
+    Journal journal = new Journal(directory, chart, new TestJournalCodec());
+    Metadata x = new Metadata();
+    Assert.assertTrue(journal.start("x", x, new TestParameter()));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 2000));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertEquals(2, journal.getCommittedSequence());
+    journal.close();
+
+    // the timeout armed by the replayed start fires before its record is read
+    TestJournalCodec codec = new TestJournalCodec() {
+      int records = 0;
+
+      public Parameter decodeParameter(byte[] bytes) {
+        if (++records == 2) {
+          Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 2000));
+          runtime.drain(10);
+        }
+        return super.decodeParameter(bytes);
+      }
+    };
+    Map<String, Metadata> instances = new HashMap<String, Metadata>();
+    journal = new Journal(directory, chart, codec);
+    Assert.assertEquals(2, journal.replay(instances));
+    Assert.assertSame(chart.getStateByName("end"), instances.get("x").getData(chart).currentState);
+    // the held back timeout was consumed by its record
+    runtime.drain(10);
+    Assert.assertEquals(2, journal.getCommittedSequence());
+    journal.close();
+
+    delete(directory);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // The lock of the Metadata object is not held while waiting for the commit
+  //============================================================================
+  @Test
+  public void testCommitWaitUnlocked() throws Exception {
+    File directory = Files.createTempDirectory("journal").toFile();
+    Statechart chart = TestCharts.t2();
+    final Journal journal = new Journal(directory, chart, new TestJournalCodec(), 500, 1000, 64L << 20);
+    final Metadata data = new Metadata();
+    final boolean[] started = new boolean[1];
+    Thread thread = new Thread() {
+      public void run() {
+        try {
+          started[0] = journal.start("x", data, new TestParameter());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    thread.start();
+    Thread.sleep(100);
+    long begin = System.nanoTime();
+    synchronized (data) {
+      Assert.assertTrue(System.nanoTime() - begin < 200000000L);
+    }
+    thread.join();
+    Assert.assertTrue(started[0]);
+    Assert.assertEquals(1, journal.getCommittedSequence());
+    journal.close();
+
+    delete(directory);
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private static void delete(File directory) {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.DelayQueueTimerService;
+import statechart.Metadata;
+import statechart.Statechart;
+import statechart.StatechartException;
+
+public class MailboxTest {
+  //============================================================================
+  // Asynchronous events of one Metadata object are dispatched in FIFO order
+  //============================================================================
+  @Test
+  public void testFifo() throws StatechartException, InterruptedException {
+    assertFifo(32);
+    assertFifo(1);
+  }
+
+  //============================================================================
+  // Many Metadata objects share the threadpool
+  //============================================================================
+  @Test
+  public void testManyMailboxes() throws StatechartException, InterruptedException {
+    Statechart chart = TestCharts.t2();
+    TestEvent s1 = new TestEvent(1);
+    TestEvent s2 = new TestEvent(2);
+
+    Metadata[] data = new Metadata[100];
+    TestParameter[] parameter = new TestParameter[data.length];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = new Metadata();
+      parameter[i] = new TestParameter();
+      chart.startAsynchron(data[i], parameter[i]);
+    }
+    for (int j = 0; j < 10; j++) {
+      for (int i = 0; i < data.length; i++) {
+        chart.dispatchAsynchron(data[i], s1, parameter[i]);
+      }
+    }
+    for (int i = 0; i < data.length; i++) {
+      chart.dispatchAsynchron(data[i], s2, parameter[i]);
+    }
+
+    for (int i = 0; i < data.length; i++) {
+      TestCharts.waitForFinalState(chart, data[i]);
+      Assert.assertEquals(expectedPath(10), parameter[i].path);
+    }
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // Virtual threads need Java 21 or newer
+  //============================================================================
+  @Test
+  public void testVirtualThreads() throws StatechartException, InterruptedException {
+    ExecutorService executor = null;
+    try {
+      executor = Statechart.newVirtualThreadExecutor();
+    } catch (StatechartException e) {
+      try {
+        Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        Assert.fail("Virtual threads are supported");
+      } catch (NoSuchMethodException expected) {
+        return;
+      }
+    }
+
+    Statechart chart = TestCharts.t2(new Statechart("t2v", executor, new DelayQueueTimerService()));
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    chart.startAsynchron(data, parameter);
+    chart.dispatchAsynchron(data, new TestEvent(1), parameter);
+    chart.dispatchAsynchron(data, new TestEvent(2), parameter);
+    TestCharts.waitForFinalState(chart, data);
+    Assert.assertEquals(expectedPath(1), parameter.path);
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private void assertFifo(int batchSize) throws StatechartException, InterruptedException {
+    Statechart chart = TestCharts.t2();
+    chart.setMailboxBatchSize(batchSize);
+    TestEvent s1 = new TestEvent(1);
+    TestEvent s2 = new TestEvent(2);
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    chart.startAsynchron(data, parameter);
+    for (int i = 0; i < 1000; i++) {
+      chart.dispatchAsynchron(data, s1, parameter);
+    }
+    chart.dispatchAsynchron(data, s2, parameter);
+
+    TestCharts.waitForFinalState(chart, data);
+    Assert.assertEquals(expectedPath(1000), parameter.path);
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private String expectedPath(int loops) {
+    StringBuilder path = new StringBuilder("D:start A:a");
+    for (int i = 0; i < loops; i++) {
+      path.append(" D:a A:a");
+    }
+    return path.append(" D:a A:end").toString();
+  }
+}
@@ -21,10 +21,22 @@ package statechart.unittests;
 
 import org.junit.Assert;
 import org.junit.Test;
+import statechart.Action;
+import statechart.BitsetMetadata;
+import java.io.File;
+import java.io.IOException;
+import statechart.DelayQueueTimerService;
+import statechart.MappedMetadataStore;
 import statechart.Metadata;
+import statechart.MetadataCodec;
+import statechart.Parameter;
+import statechart.PseudoState;
 import statechart.State;
 import statechart.Statechart;
 import statechart.StatechartException;
+import statechart.StatechartRuntime;
+import statechart.TimeoutEvent;
+import statechart.Transition;
 
 public class MetadataPersistanceTest {
 
@@ -55,4 +67,341 @@ public class MetadataPersistanceTest {
 
     chart.shutdown();
   }
+
+  //============================================================================
+  // Test the ordinals used as index by the Metadata object
+  //============================================================================
+  @Test
+  public void testStateOrdinals() throws StatechartException {
+    Statechart chart = TestCharts.h5();
+    Statechart other = TestCharts.t1();
+
+    Assert.assertEquals(0, chart.getOrdinal());
+    Assert.assertEquals(13, chart.getStateCount());
+    for (int i = 0; i < chart.getStateCount(); i++) {
+      Assert.assertEquals(i, chart.getStateByOrdinal(i).getOrdinal());
+    }
+    Assert.assertNull(chart.getStateByOrdinal(chart.getStateCount()));
+
+    // states of another statechart with the same ordinal are never active
+    Metadata data = new Metadata();
+    chart.restoreState(chart.getStateByName("c"), data, new TestParameter());
+    Assert.assertTrue(data.isActive(chart.getStateByName("a").getContext()));
+    Assert.assertFalse(data.isActive(other.getStateByOrdinal(chart.getStateByName("p").getOrdinal())));
+
+    chart.shutdown();
+    other.shutdown();
+  }
+
+  //============================================================================
+  // A restored snapshot behaves like the original runtime data
+  //============================================================================
+  @Test
+  public void testSnapshot() throws StatechartException {
+    assertSnapshot(TestCharts.h5(), 0, new int[] { 2, 4, 1 }, 4, 5, 1, 3);
+    assertSnapshot(TestCharts.h5(), 0, new int[] { 2, 3, 1 }, 2, 3);
+    assertSnapshot(TestCharts.c2(), 0, new int[] { 2 }, 1, 2);
+    assertSnapshot(TestCharts.c10(), 0, new int[] { 1, 1 }, 2, 1, 1, 2);
+  }
+
+  //============================================================================
+  // Armed timeouts are restored with their remaining delay
+  //============================================================================
+  @Test
+  public void testSnapshotTimeouts() throws StatechartException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t3(new Statechart("t3", runtime));
+    MetadataCodec codec = new MetadataCodec(chart);
+
+    Metadata data = new Metadata();
+    Assert.assertTrue(chart.start(data, new TestParameter()));
+    byte[] snapshot = codec.encode(data);
+    Assert.assertTrue(snapshot.length < 16);
+    data.reset();
+    Assert.assertEquals(0, runtime.getTimerService().size());
+
+    TestParameter parameter = new TestParameter();
+    Metadata restored = new BitsetMetadata();
+    codec.decode(snapshot, restored, parameter);
+    Assert.assertTrue(restored.isActive(chart.getStateByName("a")));
+    Assert.assertEquals(1, runtime.getTimerService().size());
+    Assert.assertEquals(0, runtime.pollTimeouts(System.currentTimeMillis() + 500));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 1500));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertEquals("D:a A:end", parameter.path);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // A fired timeout rejected by a guard is not restored
+  //============================================================================
+  @Test
+  public void testSnapshotFiredTimeout() throws StatechartException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = new Statechart("fired", runtime);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TimeoutEvent(10), new TestGuard(1));
+    MetadataCodec codec = new MetadataCodec(chart);
+
+    Metadata data = new Metadata();
+    Assert.assertTrue(chart.start(data, new TestParameter()));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 1000));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertTrue(data.isActive(a));
+    byte[] snapshot = codec.encode(data);
+    data.reset();
+
+    // the guard would accept the timeout now
+    TestParameter parameter = new TestParameter();
+    parameter.guardvalue = 1;
+    Metadata restored = new BitsetMetadata();
+    codec.decode(snapshot, restored, parameter);
+    Assert.assertEquals(0, runtime.getTimerService().size());
+    Assert.assertEquals(0, runtime.pollTimeouts(System.currentTimeMillis() + 1000));
+    Assert.assertEquals(0, runtime.drain(10));
+    Assert.assertTrue(restored.isActive(a));
+    Assert.assertFalse(restored.isActive(b));
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Snapshots of another statechart are rejected
+  //============================================================================
+  @Test
+  public void testSnapshotMismatch() throws StatechartException {
+    Statechart chart = TestCharts.h5();
+    Statechart other = TestCharts.t1();
+    Metadata data = new Metadata();
+    chart.start(data, new TestParameter());
+
+    byte[] snapshot = new MetadataCodec(chart).encode(data);
+    try {
+      new MetadataCodec(other).decode(snapshot, new Metadata(), new TestParameter());
+      Assert.fail("Snapshot of another statechart restored");
+    } catch (StatechartException e) {
+    }
+    chart.shutdown();
+    other.shutdown();
+  }
+
+  //============================================================================
+  // Dormant instances kept in the mapped store behave like live ones
+  //============================================================================
+  @Test
+  public void testMappedStore() throws StatechartException, IOException {
+    assertMappedStore(TestCharts.h5(), new int[] { 2, 4, 1 }, 4, 5, 1, 3);
+    assertMappedStore(TestCharts.c10(), new int[] { 1, 1 }, 2, 1, 1, 2);
+  }
+
+  //============================================================================
+  // Timeouts of a dormant instance are armed again on loading
+  //============================================================================
+  @Test
+  public void testMappedStoreTimeouts() throws StatechartException, IOException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t3(new Statechart("t3", runtime));
+    File path = File.createTempFile("store", ".map");
+    MappedMetadataStore store = new MappedMetadataStore(path, chart, 10);
+
+    Metadata data = new Metadata();
+    chart.start(data, new TestParameter());
+    store.store(3, data);
+    Assert.assertTrue(store.contains(3));
+    Assert.assertFalse(data.isActive(chart));
+    Assert.assertEquals(0, runtime.pollTimeouts(System.currentTimeMillis() + 1500));
+
+    TestParameter parameter = new TestParameter();
+    Assert.assertTrue(store.load(3, data, parameter));
+    Assert.assertFalse(store.contains(3));
+    Assert.assertFalse(store.load(3, data, parameter));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 1500));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertEquals("D:a A:end", parameter.path);
+
+    store.close();
+    path.delete();
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // A timeout expired while dormant fires before the event waking the instance
+  //============================================================================
+  @Test
+  public void testMappedStoreExpiredTimeout()
+      throws StatechartException, IOException, InterruptedException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = new Statechart("expired", runtime);
+    State a = new State("a", chart, new TestAction("a", "A"), null, new TestAction("a", "D"));
+    State b = new State("b", chart, new TestAction("b", "A"), null, new TestAction("b", "D"));
+    State c = new State("c", chart, new TestAction("c", "A"), null, new TestAction("c", "D"));
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TimeoutEvent(10));
+    new Transition(a, c, new TestEvent(1));
+    new Transition(b, c, new TestEvent(1));
+    File path = File.createTempFile("store", ".map");
+    MappedMetadataStore store = new MappedMetadataStore(path, chart, 10);
+
+    Metadata data = new Metadata();
+    chart.start(data, new TestParameter());
+    store.store(0, data);
+    Thread.sleep(20);
+
+    TestParameter parameter = new TestParameter();
+    Assert.assertTrue(store.dispatch(0, new TestEvent(1), parameter));
+    Assert.assertEquals("D:a A:b D:b A:c", parameter.path);
+    Assert.assertEquals(0, runtime.pollTimeouts(System.currentTimeMillis() + 1000));
+
+    store.close();
+    path.delete();
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // A fired timeout rejected by a guard is not stored
+  //============================================================================
+  @Test
+  public void testMappedStoreFiredTimeout() throws StatechartException, IOException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = new Statechart("fired", runtime);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TimeoutEvent(10), new TestGuard(1));
+    File path = File.createTempFile("store", ".map");
+    MappedMetadataStore store = new MappedMetadataStore(path, chart, 10);
+
+    Metadata data = new Metadata();
+    Assert.assertTrue(chart.start(data, new TestParameter()));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 1000));
+    Assert.assertEquals(1, runtime.drain(10));
+    store.store(0, data);
+
+    // the guard would accept the timeout now
+    TestParameter parameter = new TestParameter();
+    parameter.guardvalue = 1;
+    Assert.assertTrue(store.load(0, data, parameter));
+    Assert.assertEquals(0, runtime.getTimerService().size());
+    Assert.assertTrue(data.isActive(a));
+    Assert.assertFalse(data.isActive(b));
+
+    store.close();
+    path.delete();
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Expired timeouts are dispatched after the slot is unlocked
+  //============================================================================
+  @Test
+  public void testMappedStoreExpiredUnlocked()
+      throws StatechartException, IOException, InterruptedException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = new Statechart("unlocked", runtime);
+    final MappedMetadataStore[] store = new MappedMetadataStore[1];
+    final boolean[] unlocked = new boolean[1];
+    Action probe = new Action() {
+      public void execute(Metadata data, Parameter param) {
+        Thread thread = new Thread() {
+          public void run() {
+            store[0].contains(0);
+          }
+        };
+        thread.start();
+        try {
+          thread.join(1000);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        unlocked[0] = !thread.isAlive();
+      }
+    };
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TimeoutEvent(10), probe);
+    File path = File.createTempFile("store", ".map");
+    store[0] = new MappedMetadataStore(path, chart, 10);
+
+    Metadata data = new Metadata();
+    chart.start(data, new TestParameter());
+    store[0].store(0, data);
+    Thread.sleep(20);
+
+    Assert.assertTrue(store[0].load(0, data, new TestParameter()));
+    Assert.assertTrue(data.isActive(b));
+    Assert.assertTrue(unlocked[0]);
+
+    store[0].close();
+    path.delete();
+    runtime.shutdown();
+  }
+
+  //============================================================================
+
+  private void assertMappedStore(Statechart chart, int[] before, int... after)
+      throws StatechartException, IOException {
+    MetadataCodec codec = new MetadataCodec(chart);
+    File path = File.createTempFile("store", ".map");
+    MappedMetadataStore store = new MappedMetadataStore(path, chart, 100);
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+    Metadata dormant = new Metadata();
+    chart.start(data, parameter);
+    chart.start(dormant, new TestParameter());
+    for (int event : before) {
+      chart.dispatch(data, new TestEvent(event), parameter);
+      chart.dispatch(dormant, new TestEvent(event), new TestParameter());
+    }
+    store.store(42, dormant);
+
+    // the records survive reopening the file
+    store.close();
+    store = new MappedMetadataStore(path, chart, 100);
+
+    TestParameter storedParameter = new TestParameter();
+    parameter.path = "";
+    for (int event : after) {
+      Assert.assertEquals(chart.dispatch(data, new TestEvent(event), parameter),
+          store.dispatch(42, new TestEvent(event), storedParameter));
+    }
+    Assert.assertEquals(parameter.path, storedParameter.path);
+    Assert.assertTrue(store.load(42, dormant, storedParameter));
+    Assert.assertArrayEquals(codec.encode(data), codec.encode(dormant));
+
+    store.close();
+    path.delete();
+    chart.shutdown();
+  }
+
+  //============================================================================
+
+  private void assertSnapshot(Statechart chart, int guard, int[] before, int... after)
+      throws StatechartException {
+    MetadataCodec codec = new MetadataCodec(chart);
+    TestParameter parameter = new TestParameter();
+    parameter.guardvalue = guard;
+    Metadata data = new Metadata();
+    chart.start(data, parameter);
+    for (int event : before) {
+      chart.dispatch(data, new TestEvent(event), parameter);
+    }
+
+    // restoring does not execute any actions
+    TestParameter restoredParameter = new TestParameter();
+    restoredParameter.guardvalue = guard;
+    Metadata restored = new BitsetMetadata();
+    codec.decode(codec.encode(data), restored, restoredParameter);
+    Assert.assertEquals("", restoredParameter.path);
+    Assert.assertArrayEquals(codec.encode(data), codec.encode(restored));
+
+    parameter.path = "";
+    for (int event : after) {
+      Assert.assertEquals(chart.dispatch(data, new TestEvent(event), parameter),
+          chart.dispatch(restored, new TestEvent(event), restoredParameter));
+    }
+    Assert.assertEquals(parameter.path, restoredParameter.path);
+    chart.shutdown();
+  }
 }
@@ -0,0 +1,192 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.DelayQueueTimerService;
+import statechart.FileMetadataStore;
+import statechart.MetadataStore;
+import statechart.PassivationCache;
+import statechart.PseudoState;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.StatechartRuntime;
+import statechart.TimeoutEvent;
+import statechart.Transition;
+
+public class PassivationCacheTest {
+  //============================================================================
+  // The least recently used instances are passivated and loaded again
+  //============================================================================
+  @Test
+  public void testPassivation() throws StatechartException, IOException {
+    File directory = Files.createTempDirectory("cache").toFile();
+    Statechart chart = TestCharts.t2();
+    PassivationCache<String> cache = new PassivationCache<String>(chart,
+        new FileMetadataStore<String>(directory), 2);
+
+    Assert.assertTrue(cache.start("a", new TestParameter()));
+    Assert.assertTrue(cache.start("b", new TestParameter()));
+    Assert.assertTrue(cache.dispatch("a", new TestEvent(1), new TestParameter()));
+    Assert.assertTrue(cache.start("c", new TestParameter()));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, cache.getPassivationCount());
+
+    // loading "b" executes no actions and passivates "a"
+    TestParameter parameter = new TestParameter();
+    Assert.assertTrue(cache.dispatch("b", new TestEvent(1), parameter));
+    Assert.assertEquals("D:a A:a", parameter.path);
+    Assert.assertEquals(1, cache.getActivationCount());
+    Assert.assertEquals(2, cache.getPassivationCount());
+    Assert.assertTrue(cache.dispatch("a", new TestEvent(2), new TestParameter()));
+    Assert.assertTrue(cache.get("a", null).isActive(chart.getStateByName("end")));
+    Assert.assertFalse(cache.dispatch("unknown", new TestEvent(1), new TestParameter()));
+
+    for (String key : new String[] { "a", "b", "c" }) {
+      cache.remove(key);
+    }
+    Assert.assertEquals(0, directory.listFiles().length);
+    Assert.assertTrue(directory.delete());
+    cache.shutdown();
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // An instance stays in memory if saving its snapshot fails
+  //============================================================================
+  @Test
+  public void testFailedSave() throws StatechartException, IOException {
+    final HashMap<String, byte[]> saved = new HashMap<String, byte[]>();
+    final boolean[] fail = { true };
+    MetadataStore<String> store = new MetadataStore<String>() {
+      public void save(String key, byte[] snapshot) throws IOException {
+        if (fail[0]) {
+          throw new IOException("disk full");
+        }
+        saved.put(key, snapshot);
+      }
+
+      public byte[] load(String key) {
+        return saved.get(key);
+      }
+
+      public void delete(String key) {
+        saved.remove(key);
+      }
+    };
+    Statechart chart = TestCharts.t2();
+    PassivationCache<String> cache = new PassivationCache<String>(chart, store, 1);
+
+    Assert.assertTrue(cache.start("a", new TestParameter()));
+    try {
+      cache.start("b", new TestParameter());
+      Assert.fail();
+    } catch (IOException e) {
+      Assert.assertEquals("disk full", e.getMessage());
+    }
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(0, cache.getPassivationCount());
+
+    fail[0] = false;
+    TestParameter parameter = new TestParameter();
+    Assert.assertTrue(cache.dispatch("a", new TestEvent(2), parameter));
+    Assert.assertEquals("D:a A:end", parameter.path);
+    cache.flush();
+    Assert.assertEquals(2, cache.getPassivationCount());
+    Assert.assertEquals(2, saved.size());
+    cache.shutdown();
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // A passivated instance is loaded again when its timeout expires
+  //============================================================================
+  @Test
+  public void testTimeoutWakeup() throws StatechartException, IOException, InterruptedException {
+    File directory = Files.createTempDirectory("cache").toFile();
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t3(new Statechart("t3", runtime));
+    TestParameter parameter = new TestParameter();
+    PassivationCache<String> cache = new PassivationCache<String>(chart,
+        new FileMetadataStore<String>(directory), 1, null, parameter);
+
+    cache.start("a", new TestParameter());
+    cache.start("b", new TestParameter());
+    Assert.assertTrue(cache.dispatch("b", new TestEvent(1), new TestParameter()));
+    Assert.assertEquals(1, cache.getPassivationCount());
+    Assert.assertEquals(0, runtime.pollTimeouts(System.currentTimeMillis() + 1500));
+
+    for (int i = 0; i < 300 && cache.getActivationCount() == 0; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(1, cache.getActivationCount());
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 100));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertEquals("D:a A:end", parameter.path);
+
+    cache.remove("a");
+    cache.remove("b");
+    Assert.assertTrue(directory.delete());
+    cache.shutdown();
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Instances with a fired timeout rejected by a guard stay passivated
+  //============================================================================
+  @Test
+  public void testFiredTimeoutNoWakeup()
+      throws StatechartException, IOException, InterruptedException {
+    File directory = Files.createTempDirectory("cache").toFile();
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = new Statechart("fired", runtime);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TimeoutEvent(10), new TestGuard(1));
+    PassivationCache<String> cache = new PassivationCache<String>(chart,
+        new FileMetadataStore<String>(directory), 1);
+
+    Assert.assertTrue(cache.start("x", new TestParameter()));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 1000));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertTrue(cache.start("y", new TestParameter()));
+    Assert.assertEquals(1, runtime.pollTimeouts(System.currentTimeMillis() + 1000));
+    Assert.assertEquals(1, runtime.drain(10));
+    cache.flush();
+    Assert.assertEquals(2, cache.getPassivationCount());
+
+    Thread.sleep(100);
+    Assert.assertEquals(0, cache.getActivationCount());
+    Assert.assertEquals(2, cache.getPassivationCount());
+
+    cache.remove("x");
+    cache.remove("y");
+    Assert.assertTrue(directory.delete());
+    cache.shutdown();
+    runtime.shutdown();
+  }
+}
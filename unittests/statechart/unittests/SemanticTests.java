@@ -19,13 +19,19 @@
  */
 package statechart.unittests;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import org.junit.Assert;
 import org.junit.Test;
+import statechart.Event;
+import statechart.EventRegistry;
 import statechart.FinalState;
 import statechart.Metadata;
+import statechart.PseudoState;
 import statechart.State;
 import statechart.Statechart;
 import statechart.StatechartException;
+import statechart.Transition;
 
 public class SemanticTests {
   @Test
@@ -859,5 +865,144 @@ public class SemanticTests {
     chart.shutdown();
   }
 
-}
+  @Test
+  public void testEventIndex() throws StatechartException {
+    Statechart chart = TestCharts.e1();
+
+    Event go = new Event("go") {};
+    Event back = new Event("back") {};
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    Assert.assertTrue(chart.start(data, parameter));
+    Assert.assertFalse(chart.dispatch(data, new Event("unknown") {}, parameter));
+    Assert.assertFalse(chart.dispatch(data, new TestEvent(2), parameter));
+
+    // the guarded transition is checked first even though it was added last
+    parameter.guardvalue = 1;
+    Assert.assertTrue(chart.dispatch(data, go, parameter));
+    Assert.assertTrue(chart.dispatch(data, back, parameter));
+    parameter.guardvalue = 0;
+    Assert.assertTrue(chart.dispatch(data, go, parameter));
+    Assert.assertTrue(chart.dispatch(data, back, parameter));
+
+    // events with an own equals method are checked for every event
+    Assert.assertTrue(chart.dispatch(data, new TestEvent(1), parameter));
+    Assert.assertFalse(chart.dispatch(data, go, parameter));
+    Assert.assertTrue(chart.dispatch(data, back, parameter));
+
+    String result = "D:start A:a D:a A:c D:c A:a D:a A:b D:b A:a D:a A:d D:d A:a";
+    Assert.assertEquals(result, parameter.path);
+    chart.shutdown();
+  }
+
+  @Test
+  public void testEventCodes() throws StatechartException {
+    Event a = new Event("code-a") {};
+    Event b = new Event("code-b") {};
+
+    Assert.assertEquals(a.getCode(), new Event("code-a") {}.getCode());
+    Assert.assertFalse(a.getCode() == b.getCode());
+    Assert.assertEquals("code-b", EventRegistry.getId(b.getCode()));
+    Assert.assertEquals(b.getCode(), EventRegistry.lookup("code-b"));
+    Assert.assertEquals(-1, EventRegistry.lookup("code-unknown"));
+  }
+
+  @Test
+  public void testSparseEventIndex() throws StatechartException {
+    // many codes interned elsewhere do not matter to the index of a state
+    for (int i = 0; i < 1000; i++) {
+      EventRegistry.getCode("sparse-" + i);
+    }
+    Statechart chart = new Statechart("sparse", 10, false);
+    State start = new PseudoState("start", chart, PseudoState.pseudostate_start);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    State c = new State("c", chart, null, null, null);
+    new Transition(start, a);
+    new Transition(a, b, new Event("sparse-999") {});
+    new Transition(b, a, new Event("sparse-0") {});
+
+    Metadata data = new Metadata();
+    Assert.assertTrue(chart.start(data));
+    Assert.assertFalse(chart.dispatch(data, new Event("sparse-500") {}));
+    Assert.assertTrue(chart.dispatch(data, new Event("sparse-999") {}));
+    Assert.assertTrue(chart.dispatch(data, new Event("sparse-0") {}));
+
+    // a transition added after a dispatch is found
+    new Transition(a, c, new Event("sparse-500") {});
+    Assert.assertTrue(chart.dispatch(data, new Event("sparse-500") {}));
+    Assert.assertTrue(data.isActive(c));
+    chart.shutdown();
+  }
+
+  @Test
+  public void testFreeze() throws StatechartException {
+    Statechart[] charts = { TestCharts.t1(), TestCharts.t3(), TestCharts.t4(),
+        TestCharts.h5(), TestCharts.c2(), TestCharts.c7(), TestCharts.c9(), TestCharts.c10() };
+    for (Statechart chart : charts) {
+      chart.freeze();
+      Assert.assertTrue(chart.isFrozen());
+    }
+
+    // a frozen chart still works
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+    Assert.assertTrue(charts[0].start(data, parameter));
+    Assert.assertEquals("D:start A:a D:a A:b D:b A:end", parameter.path);
+
+    // but cannot be changed anymore
+    try {
+      new State("x", charts[0], null, null, null);
+      Assert.fail("State added to a frozen statechart");
+    } catch (StatechartException e) {
+    }
+    try {
+      new Transition(charts[0].getStateByName("a"), charts[0].getStateByName("b"));
+      Assert.fail("Transition added to a frozen statechart");
+    } catch (IllegalStateException e) {
+    }
 
+    for (Statechart chart : charts) {
+      chart.shutdown();
+    }
+  }
+
+  @Test
+  public void testFreezeValidation() throws StatechartException {
+    Statechart chart = new Statechart("invalid", 2, false);
+    new State("a", chart, null, null, null);
+    new PseudoState("j", chart, PseudoState.pseudostate_junction);
+    try {
+      chart.freeze();
+      Assert.fail("Invalid statechart frozen");
+    } catch (StatechartException e) {
+      Assert.assertTrue(e.getMessage().contains("no start state"));
+      Assert.assertTrue(e.getMessage().contains("<j> has no outgoing transition"));
+    }
+    Assert.assertFalse(chart.isFrozen());
+    chart.shutdown();
+  }
+
+  @Test
+  public void testDispatchBatch() throws StatechartException {
+    Statechart chart = TestCharts.t2();
+    TestEvent s1 = new TestEvent(1);
+    TestEvent s2 = new TestEvent(2);
+    TestEvent s3 = new TestEvent(3);
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    Assert.assertTrue(chart.start(data, parameter));
+    BitSet handled = chart.dispatchBatch(data, new Event[] { s1, s3, s1, s2, s1 }, parameter);
+    Assert.assertEquals("{0, 2, 3}", handled.toString());
+    Assert.assertEquals("D:start A:a D:a A:a D:a A:a D:a A:end", parameter.path);
+
+    parameter = new TestParameter();
+    Assert.assertTrue(chart.start(data, parameter));
+    handled = chart.dispatchBatch(data, Arrays.asList(s3, s1, s2), parameter);
+    Assert.assertEquals("{1, 2}", handled.toString());
+    Assert.assertEquals("D:start A:a D:a A:a D:a A:end", parameter.path);
+    chart.shutdown();
+  }
+}
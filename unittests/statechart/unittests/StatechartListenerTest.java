@@ -0,0 +1,321 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.Action;
+import statechart.DelayQueueTimerService;
+import statechart.Event;
+import statechart.LatencyHistogram;
+import statechart.LatencyRecorder;
+import statechart.Metadata;
+import statechart.Parameter;
+import statechart.PseudoState;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.StatechartListener;
+import statechart.StatechartListenerAdapter;
+import statechart.StatechartRuntime;
+import statechart.Transition;
+
+public class StatechartListenerTest {
+  /**
+   * Records the notifications like the TestActions record the actions.
+   */
+  static class Recorder implements StatechartListener {
+    String path = "";
+    int actions = 0;
+    int locks = 0;
+    int started = 0;
+    int executed = 0;
+    int dispatches = 0;
+    int handled = 0;
+    long maxWait = 0;
+
+    public void stateEntered(Metadata data, State state) {
+      record("enter:" + state);
+    }
+
+    public void stateExited(Metadata data, State state) {
+      record("exit:" + state);
+    }
+
+    public void lockRequested(Metadata data) {
+      locks++;
+    }
+
+    public void lockAcquired(Metadata data, long waitNanos) {
+      Assert.assertTrue(waitNanos >= 0);
+      locks--;
+    }
+
+    public void dispatchStarted(Metadata data, Event event) {
+      started++;
+    }
+
+    public void transitionFired(Metadata data, Transition transition, Event event) {
+      record("fire");
+    }
+
+    public void transitionExecuted(Metadata data, Transition transition, long nanos) {
+      Assert.assertTrue(nanos >= 0);
+      executed++;
+    }
+
+    public void eventUnhandled(Metadata data, Event event) {
+      record("unhandled");
+    }
+
+    public void guardRejected(Metadata data, Transition transition) {
+      record("rejected");
+    }
+
+    public void actionExecuted(Metadata data, State state, int kind, Action action, long nanos) {
+      Assert.assertTrue(nanos >= 0);
+      actions++;
+    }
+
+    public void eventDispatched(Metadata data, Event event, boolean handled, long waitNanos,
+        long nanos) {
+      Assert.assertTrue(waitNanos >= 0 && nanos >= 0);
+      maxWait = Math.max(maxWait, waitNanos);
+      dispatches++;
+      this.handled += handled ? 1 : 0;
+    }
+
+    public void timeoutFired(Metadata data, Event event, long scheduled, long fired) {
+      record("timeout");
+    }
+
+    private void record(String step) {
+      path += (path.length() != 0 ? " " : "") + step;
+    }
+  }
+
+  //============================================================================
+  // The steps of a dispatch are reported in order
+  //============================================================================
+  @Test
+  public void testSteps() throws StatechartException {
+    Statechart chart = TestCharts.t4();
+    Recorder recorder = new Recorder();
+    chart.addListener(recorder);
+
+    TestParameter parameter = new TestParameter();
+    parameter.guardvalue = 1;
+    chart.start(new Metadata(), parameter);
+    Assert.assertEquals(
+        "fire exit:start enter:a rejected rejected fire exit:a enter:j1 rejected fire exit:j1 "
+        + "enter:b fire exit:b enter:end",
+        recorder.path);
+    Assert.assertEquals("D:start A:a D:a A:j1 D:j1 E:a1 A:b D:b A:end", parameter.path);
+    Assert.assertEquals(9, recorder.actions);
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // Unhandled events and several listeners
+  //============================================================================
+  @Test
+  public void testUnhandled() throws StatechartException {
+    Statechart chart = TestCharts.t2();
+    Recorder first = new Recorder();
+    Recorder second = new Recorder();
+    chart.addListener(first);
+    chart.addListener(second);
+    chart.addListener(new StatechartListenerAdapter());
+
+    Metadata data = new Metadata();
+    TestParameter parameter = new TestParameter();
+    chart.start(data, parameter);
+    first.path = "";
+    second.path = "";
+    Assert.assertFalse(chart.dispatch(data, new TestEvent(3), parameter));
+    Assert.assertEquals("unhandled", first.path);
+    Assert.assertEquals(first.path, second.path);
+
+    chart.removeListener(first);
+    Assert.assertTrue(chart.dispatch(data, new TestEvent(1), parameter));
+    Assert.assertEquals("unhandled", first.path);
+    Assert.assertEquals("unhandled fire exit:s1 enter:s1", second.path);
+    Assert.assertEquals(3, second.dispatches);
+    Assert.assertEquals(3, second.started);
+    Assert.assertEquals(0, second.locks);
+    Assert.assertEquals(2, second.handled);
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // A dispatch throwing an exception is completed as well
+  //============================================================================
+  @Test
+  public void testThrowingAction() throws StatechartException {
+    Statechart chart = new Statechart("throwing", 10, false);
+    State a = new State("a", chart, null, null, null);
+    State b = new State("b", chart, null, null, null);
+    new Transition(new PseudoState("start", chart, PseudoState.pseudostate_start), a);
+    new Transition(a, b, new TestEvent(1), new Action() {
+      public void execute(Metadata data, Parameter param) {
+        throw new IllegalStateException("failed");
+      }
+    });
+    Recorder recorder = new Recorder();
+    chart.addListener(recorder);
+
+    Metadata data = new Metadata();
+    Assert.assertTrue(chart.start(data, new TestParameter()));
+    try {
+      chart.dispatch(data, new TestEvent(1), new TestParameter());
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("failed", e.getMessage());
+    }
+    Assert.assertEquals("fire exit:start enter:a fire exit:a", recorder.path);
+    Assert.assertEquals(2, recorder.executed);
+    Assert.assertEquals(2, recorder.started);
+    Assert.assertEquals(2, recorder.dispatches);
+    Assert.assertEquals(1, recorder.handled);
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // The wait of a mailbox for the lock is reported with its first event
+  //============================================================================
+  @Test
+  public void testMailboxLockWait() throws Exception {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t2(new Statechart("wait", runtime));
+    Recorder recorder = new Recorder();
+    chart.addListener(recorder);
+    final Metadata data = new Metadata();
+    TestParameter parameter = new TestParameter();
+    chart.start(data, parameter);
+    chart.dispatchAsynchron(data, new TestEvent(1), parameter);
+    chart.dispatchAsynchron(data, new TestEvent(1), parameter);
+
+    final CountDownLatch locked = new CountDownLatch(1);
+    Thread holder = new Thread() {
+      public void run() {
+        synchronized (data) {
+          locked.countDown();
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            // ends the wait early
+          }
+        }
+      }
+    };
+    holder.start();
+    locked.await();
+    recorder.maxWait = 0;
+    Assert.assertEquals(2, runtime.drain(10));
+    holder.join();
+
+    Assert.assertEquals(3, recorder.dispatches);
+    Assert.assertTrue(recorder.maxWait >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertEquals(0, recorder.locks);
+    runtime.shutdown();
+    chart.shutdown();
+  }
+  //============================================================================
+  // Percentiles of the log-linear histogram are accurate to one bucket
+  //============================================================================
+  @Test
+  public void testHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    Assert.assertEquals(0, histogram.snapshot().getPercentile(99));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    Assert.assertEquals(1000, snapshot.getCount());
+    Assert.assertEquals(500.5, snapshot.getMean(), 0.001);
+    Assert.assertEquals(1000, snapshot.getMax());
+    Assert.assertEquals(1000, snapshot.getPercentile(100));
+    Assert.assertTrue(snapshot.getPercentile(50) >= 500 && snapshot.getPercentile(50) < 500 * 1.125);
+    Assert.assertTrue(snapshot.getPercentile(99) >= 990 && snapshot.getPercentile(99) <= 1000);
+  }
+
+  //============================================================================
+  // The recorder keeps a histogram per transition, action and state
+  //============================================================================
+  @Test
+  public void testLatencyRecorder() throws StatechartException {
+    Statechart chart = TestCharts.t2();
+    LatencyRecorder recorder = new LatencyRecorder(chart);
+    chart.addListener(recorder);
+
+    Metadata data = new Metadata();
+    TestParameter parameter = new TestParameter();
+    chart.start(data, parameter);
+    for (int i = 0; i < 10; i++) {
+      chart.dispatch(data, new TestEvent(1), parameter);
+    }
+    chart.dispatch(data, new TestEvent(2), parameter);
+
+    State s1 = chart.getStateByName("a");
+    Assert.assertEquals(11, recorder.getEntryHistogram(s1).snapshot().getCount());
+    Assert.assertEquals(11, recorder.getExitHistogram(s1).snapshot().getCount());
+    Assert.assertEquals(11, recorder.getDwellHistogram(s1).snapshot().getCount());
+    Assert.assertNull(recorder.getDoHistogram(s1));
+
+    Map<String, LatencyHistogram.Snapshot> snapshot = recorder.snapshot();
+    Assert.assertEquals(10, snapshot.get("s1 -> s1 #0").getCount());
+    Assert.assertEquals(1, snapshot.get("s1 -> p3 #1").getCount());
+    Assert.assertEquals(1, snapshot.get("p1 -> s1 #0").getCount());
+    Assert.assertFalse(snapshot.containsKey("s1.do"));
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // An action used by several states is recorded for each of them
+  //============================================================================
+  @Test
+  public void testLatencyRecorderSharedAction() throws StatechartException {
+    Statechart chart = new Statechart("shared", 10, false);
+    Action shared = new TestAction("x", "A");
+    State p1 = new PseudoState("start", chart, PseudoState.pseudostate_start);
+    State s1 = new State("a", chart, shared, null, null);
+    State s2 = new State("b", chart, shared, null, shared);
+    new Transition(p1, s1);
+    new Transition(s1, s2, new TestEvent(1));
+    new Transition(s2, s1, new TestEvent(2));
+    LatencyRecorder recorder = new LatencyRecorder(chart);
+    chart.addListener(recorder);
+
+    Metadata data = new Metadata();
+    TestParameter parameter = new TestParameter();
+    chart.start(data, parameter);
+    chart.dispatch(data, new TestEvent(1), parameter);
+    chart.dispatch(data, new TestEvent(2), parameter);
+
+    Assert.assertEquals(2, recorder.getEntryHistogram(s1).snapshot().getCount());
+    Assert.assertEquals(1, recorder.getEntryHistogram(s2).snapshot().getCount());
+    Assert.assertEquals(1, recorder.getExitHistogram(s2).snapshot().getCount());
+    Assert.assertNull(recorder.getExitHistogram(s1));
+    chart.shutdown();
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.DelayQueueTimerService;
+import statechart.Metadata;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.StatechartRuntime;
+import statechart.TimerService;
+import statechart.TimingWheelTimerService;
+
+public class StatechartRuntimeTest {
+  //============================================================================
+  // No threads are created before they are needed
+  //============================================================================
+  @Test
+  public void testLazyStart() throws StatechartException, InterruptedException {
+    StatechartRuntime runtime = new StatechartRuntime("lazy", 2, true);
+    Statechart chart = TestCharts.t2(new Statechart("t2", runtime));
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    Assert.assertTrue(chart.start(data, parameter));
+    Assert.assertTrue(chart.dispatch(data, new TestEvent(1), parameter));
+    Assert.assertFalse(runtime.isStarted());
+
+    chart.dispatchAsynchron(data, new TestEvent(2), parameter);
+    Assert.assertTrue(runtime.isStarted());
+    TestCharts.waitForFinalState(chart, data);
+    Assert.assertEquals("D:start A:a D:a A:a D:a A:end", parameter.path);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Several statecharts share one runtime
+  //============================================================================
+  @Test
+  public void testSharedRuntime() throws StatechartException, InterruptedException {
+    StatechartRuntime runtime = new StatechartRuntime("shared", 2, true);
+    Statechart[] charts = new Statechart[20];
+    for (int i = 0; i < charts.length; i++) {
+      charts[i] = TestCharts.t3(new Statechart("t3-" + i, runtime));
+    }
+    Assert.assertFalse(runtime.isStarted());
+
+    Metadata[] data = new Metadata[charts.length];
+    TestParameter[] parameter = new TestParameter[charts.length];
+    for (int i = 0; i < charts.length; i++) {
+      data[i] = new Metadata();
+      parameter[i] = new TestParameter();
+      Assert.assertTrue(charts[i].start(data[i], parameter[i]));
+    }
+    // arming the timeouts started the runtime
+    Assert.assertTrue(runtime.isStarted());
+    Assert.assertEquals(charts.length, runtime.getTimerService().size());
+
+    // shutting down a statechart keeps the shared runtime alive
+    charts[0].shutdown();
+    Assert.assertFalse(runtime.isShutdown());
+
+    for (int i = 0; i < charts.length; i++) {
+      TestCharts.waitForFinalState(charts[i], data[i]);
+      Assert.assertEquals("D:start A:a D:a A:end", parameter[i].path);
+    }
+    runtime.shutdown();
+    Assert.assertTrue(runtime.isShutdown());
+  }
+
+  //============================================================================
+  // A manual runtime is driven by the caller
+  //============================================================================
+  @Test
+  public void testManualEvents() throws StatechartException {
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t2(new Statechart("t2", runtime));
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    chart.startAsynchron(data, parameter);
+    chart.dispatchAsynchron(data, new TestEvent(1), parameter);
+    chart.dispatchAsynchron(data, new TestEvent(1), parameter);
+    chart.dispatchAsynchron(data, new TestEvent(2), parameter);
+    Assert.assertEquals("", parameter.path);
+
+    Assert.assertEquals(2, runtime.drain(2));
+    Assert.assertEquals("D:start A:a D:a A:a", parameter.path);
+    Assert.assertEquals(2, runtime.drain(10));
+    Assert.assertEquals(0, runtime.drain(10));
+    Assert.assertEquals("D:start A:a D:a A:a D:a A:a D:a A:end", parameter.path);
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // Timeouts of a manual runtime expire when polled
+  //============================================================================
+  @Test
+  public void testManualTimeouts() throws StatechartException {
+    testManualTimeouts(new DelayQueueTimerService());
+    testManualTimeouts(new TimingWheelTimerService(10, 64));
+  }
+
+  //============================================================================
+
+  private void testManualTimeouts(TimerService timer) throws StatechartException {
+    StatechartRuntime runtime = new StatechartRuntime(timer);
+    Statechart chart = TestCharts.t3(new Statechart("t3", runtime));
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    long now = System.currentTimeMillis();
+    Assert.assertTrue(chart.start(data, parameter));
+    Assert.assertEquals(0, runtime.pollTimeouts(now));
+    Assert.assertEquals(0, runtime.drain(10));
+
+    Assert.assertEquals(1, runtime.pollTimeouts(now + 2000));
+    Assert.assertEquals("D:start A:a", parameter.path);
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertEquals("D:start A:a D:a A:end", parameter.path);
+    Assert.assertEquals(0, timer.size());
+    runtime.shutdown();
+  }
+
+  //============================================================================
+  // The statistics are published via JMX until the statechart is shut down
+  //============================================================================
+  @Test
+  public void testMXBean() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    StatechartRuntime runtime = new StatechartRuntime(new DelayQueueTimerService());
+    Statechart chart = TestCharts.t3(new Statechart("jmx", runtime));
+    Statechart other = new Statechart("jmx", runtime);
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    ObjectName pattern = new ObjectName("statechart:type=Statechart,name=\"jmx\",*");
+    Assert.assertEquals(0, server.queryNames(pattern, null).size());
+    ObjectName name = chart.registerMBean();
+    Assert.assertEquals(name, chart.registerMBean());
+    ObjectName otherName = other.registerMBean();
+    Assert.assertFalse(name.equals(otherName));
+    Assert.assertEquals(2, server.queryNames(pattern, null).size());
+    other.unregisterMBean();
+    Assert.assertFalse(server.isRegistered(otherName));
+    Assert.assertTrue(server.isRegistered(name));
+    Assert.assertEquals("jmx", server.getAttribute(name, "Name"));
+    Assert.assertEquals(0.0, server.getAttribute(name, "AsyncEventsPerSecond"));
+
+    // the timer and the pool are published once for the shared runtime
+    ObjectName runtimeName = runtime.registerMBean();
+    Assert.assertEquals(runtimeName, runtime.registerMBean());
+    Assert.assertEquals("runtime", server.getAttribute(runtimeName, "Name"));
+
+    long now = System.currentTimeMillis();
+    Assert.assertTrue(chart.start(data, parameter));
+    Assert.assertEquals(1, server.getAttribute(runtimeName, "TimerQueueSize"));
+    Assert.assertEquals(1, runtime.pollTimeouts(now + 2000));
+    Assert.assertEquals(0, server.getAttribute(runtimeName, "TimerQueueSize"));
+    Assert.assertEquals(1, server.getAttribute(runtimeName, "QueuedTasks"));
+    Assert.assertEquals(0L, server.getAttribute(name, "AsyncEvents"));
+    Assert.assertEquals(1, runtime.drain(10));
+    Assert.assertEquals(0, server.getAttribute(runtimeName, "QueuedTasks"));
+    Assert.assertEquals(1L, server.getAttribute(name, "FiredTimeouts"));
+    Assert.assertEquals(0L, server.getAttribute(name, "RejectedEvents"));
+
+    runtime.shutdown();
+    Assert.assertFalse(server.isRegistered(runtimeName));
+    chart.dispatchAsynchron(data, new TestEvent(1), parameter);
+    Assert.assertEquals(1L, server.getAttribute(name, "RejectedEvents"));
+    chart.shutdown();
+    Assert.assertFalse(server.isRegistered(name));
+  }
+
+  //============================================================================
+  // A statechart registers the MBean of the runtime it created
+  //============================================================================
+  @Test
+  public void testOwnedRuntimeMXBean() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    Statechart chart = TestCharts.t3(new Statechart("owned", 2, true));
+    ObjectName pattern = new ObjectName("statechart:type=StatechartRuntime,name=\"owned\",*");
+
+    chart.registerMBean();
+    Assert.assertEquals(1, server.queryNames(pattern, null).size());
+    ObjectName runtimeName = server.queryNames(pattern, null).iterator().next();
+    Assert.assertEquals(0, server.getAttribute(runtimeName, "TimerQueueSize"));
+    Assert.assertTrue(chart.start(new Metadata(), new TestParameter()));
+    Assert.assertEquals(1, server.getAttribute(runtimeName, "TimerQueueSize"));
+    chart.shutdown();
+    Assert.assertEquals(0, server.queryNames(pattern, null).size());
+  }
+}
@@ -31,6 +31,9 @@ public class TestAction implements Action {
 
   public void execute(Metadata data, Parameter param) {
     TestParameter parameter = (TestParameter) param;
+    if (!parameter.recording) {
+      return;
+    }
     parameter.path += 
         (parameter.path.length() != 0 ? " " : "") 
         + action + ":" + name;
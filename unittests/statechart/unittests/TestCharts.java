@@ -20,13 +20,17 @@
 package statechart.unittests;
 
 import statechart.ConcurrentState;
+import statechart.DelayQueueTimerService;
+import statechart.Event;
 import statechart.FinalState;
 import statechart.HierarchicalState;
+import statechart.Metadata;
 import statechart.PseudoState;
 import statechart.State;
 import statechart.Statechart;
 import statechart.StatechartException;
 import statechart.TimeoutEvent;
+import statechart.TimerService;
 import statechart.Transition;
 
 public class TestCharts {
@@ -47,7 +51,10 @@ public class TestCharts {
   }
 
   static Statechart t2() throws StatechartException {
-    Statechart chart = new Statechart("t2", 10, false);
+    return t2(new Statechart("t2", 10, false));
+  }
+
+  static Statechart t2(Statechart chart) throws StatechartException {
     State s1 = new State("a", chart, new TestAction("a", "A"), null, new TestAction("a", "D"));
     State p1 = new PseudoState("start", chart, PseudoState.pseudostate_start);
     State p2 = new FinalState("end", chart);
@@ -66,7 +73,14 @@ public class TestCharts {
   }
 
   static Statechart t3() throws StatechartException {
-    Statechart chart = new Statechart("t3", 10, false);
+    return t3(new DelayQueueTimerService());
+  }
+
+  static Statechart t3(TimerService timer) throws StatechartException {
+    return t3(new Statechart("t3", 10, false, timer));
+  }
+
+  static Statechart t3(Statechart chart) throws StatechartException {
 
     State s1 = new State("a", chart, new TestAction("a", "A"), null, new TestAction("a", "D"));
     State s2 = new State("b", chart, new TestAction("b", "A"), null, new TestAction("b", "D"));
@@ -651,4 +665,42 @@ public class TestCharts {
     new Transition(s2, s3, new TestEvent(2));
     return chart;
   }
+
+  static Statechart e1() throws StatechartException {
+    Statechart chart = new Statechart("e1", 10, false);
+    State s1 = new State("a", chart, new TestAction("a", "A"), null, new TestAction("a", "D"));
+    State s2 = new State("b", chart, new TestAction("b", "A"), null, new TestAction("b", "D"));
+    State s3 = new State("c", chart, new TestAction("c", "A"), null, new TestAction("c", "D"));
+    State s4 = new State("d", chart, new TestAction("d", "A"), null, new TestAction("d", "D"));
+    State p1 = new PseudoState("start", chart, PseudoState.pseudostate_start);
+    p1.setEntryAction(new TestAction("start", "A"));
+    p1.setExitAction(new TestAction("start", "D"));
+    new Transition(p1, s1);
+    for(int i = 0; i < 40; i++) {
+      new Transition(s1, s1, new Event("unused" + i) {});
+    }
+    new Transition(s1, s2, new Event("go") {});
+    new Transition(s1, s3, new Event("go") {}, new TestGuard(1));
+    new Transition(s1, s4, new TestEvent(1));
+    new Transition(s2, s1, new Event("back") {});
+    new Transition(s3, s1, new Event("back") {});
+    new Transition(s4, s1, new Event("back") {});
+    return chart;
+  }
+
+  //============================================================================
+
+  /**
+   * Waits until the asynchronous dispatches brought the chart into a final
+   * state.
+   */
+  static void waitForFinalState(Statechart chart, Metadata data) throws InterruptedException {
+    State current = null;
+    while(current == null || !(current instanceof FinalState)) {
+      Thread.sleep(10);
+      synchronized(data) {
+        current = data.getData(chart) == null ? null : data.getData(chart).currentState;
+      }
+    }
+  }
 }
@@ -24,4 +24,5 @@ import statechart.Parameter;
 public class TestParameter extends Parameter {
     String path = new String();
     int guardvalue = 0;
+    boolean recording = true;
 }
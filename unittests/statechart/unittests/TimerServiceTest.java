@@ -0,0 +1,128 @@
+/*
+ * UML statechart framework (http://github.com/klangfarbe/UML-Statechart-Framework-for-Java)
+ *
+ * Copyright (C) 2006-2010 Christian Mocek (christian.mocek@googlemail.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301 USA
+ */
+package statechart.unittests;
+
+import org.junit.Assert;
+import org.junit.Test;
+import statechart.DelayQueueTimerService;
+import statechart.FinalState;
+import statechart.Metadata;
+import statechart.State;
+import statechart.Statechart;
+import statechart.StatechartException;
+import statechart.TimingWheelTimerService;
+
+public class TimerServiceTest {
+  //============================================================================
+  // A timeout of the timing wheel fires not before it expires
+  //============================================================================
+  @Test
+  public void testTimingWheelTimeout() throws StatechartException, InterruptedException {
+    Statechart chart = TestCharts.t3(new TimingWheelTimerService(10, 64));
+
+    TestParameter parameter = new TestParameter();
+    Metadata data = new Metadata();
+
+    long started = System.currentTimeMillis();
+    Assert.assertTrue(chart.start(data, parameter));
+    Assert.assertEquals(1, chart.getTimerService().size());
+
+    State current = null;
+    while(current == null || !(current instanceof FinalState)) {
+      Thread.sleep(20);
+      synchronized(data) {
+        current = data.getData(chart).currentState;
+      }
+    }
+
+    Assert.assertTrue(System.currentTimeMillis() - started >= 1000);
+    Assert.assertEquals("D:start A:a D:a A:end", parameter.path);
+    Assert.assertEquals(0, chart.getTimerService().size());
+    chart.shutdown();
+  }
+
+  //============================================================================
+  // Leaving a state disarms its timeouts
+  //============================================================================
+  @Test
+  public void testTimingWheelCancel() throws StatechartException, InterruptedException {
+    TimingWheelTimerService timer = new TimingWheelTimerService(10, 64);
+    Statechart chart = TestCharts.t3(timer);
+    TestEvent e1 = new TestEvent(1);
+
+    Metadata[] data = new Metadata[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = new Metadata();
+      Assert.assertTrue(chart.start(data[i], new TestParameter()));
+    }
+    Assert.assertEquals(data.length, timer.size());
+
+    for (int i = 0; i < data.length; i++) {
+      TestParameter parameter = new TestParameter();
+      Assert.assertTrue(chart.dispatch(data[i], e1, parameter));
+      Assert.assertEquals("D:a A:b D:b A:end", parameter.path);
+    }
+    Assert.assertEquals(0, timer.size());
+
+    // the cancelled entries are dropped lazily by the timer thread
+    while (timer.getCancelledCount() > 0) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(data.length, timer.getPurgedAtHeadCount() + timer.getPurgedBySweepCount());
+    Assert.assertTrue(timer.getSweepCount() > 0);
+
+    // restarting reuses the disarmed entries
+    TestParameter parameter = new TestParameter();
+    Assert.assertTrue(chart.start(data[0], parameter));
+    Assert.assertEquals(1, timer.size());
+    chart.shutdown();
+    Assert.assertEquals(0, timer.size());
+  }
+
+  //============================================================================
+  // Cancelled entries of the default timer are purged by a sweep
+  //============================================================================
+  @Test
+  public void testLazyPurge() throws StatechartException {
+    DelayQueueTimerService timer = new DelayQueueTimerService();
+    Statechart chart = TestCharts.t3(timer);
+    TestEvent e1 = new TestEvent(1);
+
+    // prevent the timer thread from sweeping
+    timer.setPurgeThreshold(1);
+    Metadata[] data = new Metadata[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = new Metadata();
+      Assert.assertTrue(chart.start(data[i], new TestParameter()));
+    }
+    // leave every second state, so there is always an armed head
+    for (int i = 1; i < data.length; i += 2) {
+      Assert.assertTrue(chart.dispatch(data[i], e1, new TestParameter()));
+    }
+    Assert.assertEquals(data.length / 2, timer.size());
+    Assert.assertEquals(data.length / 2, timer.getCancelledCount());
+
+    Assert.assertEquals(data.length / 2, timer.purge());
+    Assert.assertEquals(data.length / 2, timer.size());
+    Assert.assertEquals(0, timer.getCancelledCount());
+    Assert.assertEquals(data.length / 2, timer.getPurgedBySweepCount());
+    chart.shutdown();
+  }
+}